@@ -0,0 +1,80 @@
+import java.util.Random;
+
+// times evaluating a formula over columns one row at a time on the stack
+// machine, then in batches with plain loops and with the vector kernels:
+//   java --add-modules jdk.incubator.vector BatchBenchmark [rows]
+public class BatchBenchmark {
+
+    private static final int RUNS = 5;
+
+    private static final String FORMULA = "x = a * b / k - 3\ny = sqrt(x ^ 2 + 1) * k + x / (a + 1)\n";
+
+    public static void main(String[] args) {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        BatchExpression scalar = new BatchExpression(BatchExpression.compile(FORMULA).program(), new ScalarKernels());
+        BatchExpression vector = new BatchExpression(scalar.program(), BatchExpression.kernels());
+        Program program = scalar.program();
+
+        String[] inputs = scalar.inputs();
+        double[][] columns = new double[inputs.length][rows];
+        Random random = new Random(1);
+        for(double[] column : columns) {
+            for(int i = 0; i < rows; i++) {
+                column[i] = 1 + random.nextDouble() * 100;
+            }
+        }
+
+        double[][] results = new double[scalar.outputs().length][rows];
+        int[] inputSlots = new int[inputs.length];
+        for(int i = 0; i < inputs.length; i++) {
+            inputSlots[i] = program.slot(inputs[i]);
+        }
+
+        System.out.println("rows: " + rows + ", kernels: " + BatchExpression.kernels().getClass().getName());
+
+        long[] perRow = new long[RUNS];
+        long[] plain = new long[RUNS];
+        long[] simd = new long[RUNS];
+
+        for(int run = -1; run < RUNS; run++) {
+
+            long start = System.nanoTime();
+            Interpreter interpreter = new Interpreter(program);
+            for(int r = 0; r < rows; r++) {
+                interpreter.reset();
+                for(int i = 0; i < inputSlots.length; i++) {
+                    interpreter.set(inputSlots[i], new Value(columns[i][r]));
+                }
+                interpreter.run();
+            }
+            long rowsDone = System.nanoTime();
+            scalar.evaluate(columns, results, rows);
+            long scalarDone = System.nanoTime();
+            vector.evaluate(columns, results, rows);
+            long vectorDone = System.nanoTime();
+
+            if(run >= 0) {
+                perRow[run] = rowsDone - start;
+                plain[run] = scalarDone - rowsDone;
+                simd[run] = vectorDone - scalarDone;
+            }
+        }
+
+        System.out.printf("row by row:     best %8.1f ms%n", best(perRow) / 1e6);
+        System.out.printf("batch, scalar:  best %8.1f ms%n", best(plain) / 1e6);
+        System.out.printf("batch, vector:  best %8.1f ms%n", best(simd) / 1e6);
+    }
+
+    private static long best(long[] times) {
+
+        long best = Long.MAX_VALUE;
+
+        for(long time : times) {
+            best = Math.min(best, time);
+        }
+
+        return best;
+    }
+}
@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+// evaluates a straight-line numeric script (assignments built from numbers,
+// variables, + - * / % ^, unary minus and the sin/cos/log/exp/sqrt
+// functions) for whole columns of variable values at once. The program runs
+// a block of rows per instruction, each stack entry being a block of doubles,
+// so the arithmetic happens in tight loops the Vector API kernels can run
+// several lanes wide. Immutable, so one can be shared between threads
+public class BatchExpression {
+
+    // rows per block: enough to amortize dispatch, small enough to stay in cache
+    public static final int BLOCK = 1024;
+
+    private static final Kernels KERNELS = kernels();
+
+    private final Program program;
+    private final Kernels kernels;
+
+    // the POWs that are "^ 2": a multiply in any kernel, where a general
+    // power is far slower (Math.pow special-cases 2 the same way)
+    private final boolean[] squares;
+
+    // variables read before the script assigns them, and those it assigns
+    private final String[] inputs;
+    private final int[] inputSlots;
+    private final String[] outputs;
+    private final int[] outputSlots;
+
+    public BatchExpression(Program program) {
+        this(program, KERNELS);
+    }
+
+    public BatchExpression(Program program, Kernels kernels) {
+
+        String unsupported = unsupported(program);
+
+        if(unsupported != null) {
+            throw new RuntimeException("not a batch expression: uses " + unsupported);
+        }
+
+        this.program = program;
+        this.kernels = kernels;
+
+        List<Integer> read = new ArrayList<Integer>();
+        List<Integer> written = new ArrayList<Integer>();
+
+        int[] code = program.code;
+
+        for(int pc = 0; pc < code.length; pc += Program.hasArgument(code[pc]) ? 2 : 1) {
+            if(code[pc] == Program.LOAD && !written.contains(code[pc + 1]) && !read.contains(code[pc + 1])) {
+                read.add(code[pc + 1]);
+            }
+            else if(code[pc] == Program.STORE && !written.contains(code[pc + 1])) {
+                written.add(code[pc + 1]);
+            }
+        }
+
+        this.squares = new boolean[code.length];
+
+        for(int pc = 0, previous = -1; pc < code.length; previous = pc, pc += Program.hasArgument(code[pc]) ? 2 : 1) {
+            squares[pc] = code[pc] == Program.POW && previous >= 0 && code[previous] == Program.CONST &&
+                    program.constants[code[previous + 1]].asDouble() == 2;
+        }
+
+        this.inputSlots = read.stream().mapToInt(Integer::intValue).toArray();
+        this.outputSlots = written.stream().mapToInt(Integer::intValue).toArray();
+        this.inputs = names(program, inputSlots);
+        this.outputs = names(program, outputSlots);
+    }
+
+    // e.g. "y = sqrt(x ^ 2 + 1)"
+    public static BatchExpression compile(String source) {
+        CalculatorLexer lexer = new CalculatorLexer(CharStreams.fromString(source));
+        CalculatorParser parser = new CalculatorParser(new CommonTokenStream(lexer));
+        return new BatchExpression(ProgramCompiler.compile(parser.parse()));
+    }
+
+    // whether the program is one BatchExpression can run
+    public static boolean accepts(Program program) {
+        return unsupported(program) == null;
+    }
+
+    // the vector kernels when this JVM has jdk.incubator.vector, plain loops otherwise
+    public static Kernels kernels() {
+
+        if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (Kernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            }
+            catch(ReflectiveOperationException | LinkageError e) {
+                // compiled without the module: fall through
+            }
+        }
+
+        return new ScalarKernels();
+    }
+
+    public Program program() {
+        return program;
+    }
+
+    public String[] inputs() {
+        return inputs.clone();
+    }
+
+    public String[] outputs() {
+        return outputs.clone();
+    }
+
+    // columns in inputs() order, results in outputs() order, each at least rows long
+    public void evaluate(double[][] columns, double[][] results, int rows) {
+
+        if(columns.length != inputs.length || results.length != outputs.length) {
+            throw new IllegalArgumentException("expected " + inputs.length + " columns and " + outputs.length + " results");
+        }
+
+        double[][] stack = new double[program.maxStack][BLOCK];
+        double[][] slots = new double[program.names.length][BLOCK];
+
+        for(int start = 0; start < rows; start += BLOCK) {
+
+            int n = Math.min(BLOCK, rows - start);
+
+            for(int i = 0; i < inputSlots.length; i++) {
+                System.arraycopy(columns[i], start, slots[inputSlots[i]], 0, n);
+            }
+
+            run(stack, slots, n);
+
+            for(int i = 0; i < outputSlots.length; i++) {
+                System.arraycopy(slots[outputSlots[i]], 0, results[i], start, n);
+            }
+        }
+    }
+
+    // every input by name, all of the same length; returns every output by name
+    public Map<String, double[]> evaluate(Map<String, double[]> columns) {
+
+        double[][] in = new double[inputs.length][];
+        int rows = -1;
+
+        for(int i = 0; i < inputs.length; i++) {
+
+            in[i] = columns.get(inputs[i]);
+
+            if(in[i] == null) {
+                throw new RuntimeException("no such variable: " + inputs[i]);
+            }
+
+            if(rows >= 0 && in[i].length != rows) {
+                throw new IllegalArgumentException("columns differ in length: " + inputs[i]);
+            }
+
+            rows = in[i].length;
+        }
+
+        if(rows < 0) {
+            rows = columns.isEmpty() ? 1 : columns.values().iterator().next().length;
+        }
+
+        double[][] out = new double[outputs.length][rows];
+        evaluate(in, out, rows);
+
+        Map<String, double[]> results = new LinkedHashMap<String, double[]>();
+        for(int i = 0; i < outputs.length; i++) {
+            results.put(outputs[i], out[i]);
+        }
+
+        return results;
+    }
+
+    private void run(double[][] stack, double[][] slots, int n) {
+
+        final int[] code = program.code;
+        int sp = 0;
+
+        for(int pc = 0; ; ) {
+
+            int opcode = code[pc++];
+
+            switch (opcode) {
+                case Program.CONST:
+                    Arrays.fill(stack[sp++], 0, n, program.constants[code[pc++]].asDouble());
+                    break;
+                case Program.LOAD:
+                    System.arraycopy(slots[code[pc++]], 0, stack[sp++], 0, n);
+                    break;
+                case Program.STORE:
+                    System.arraycopy(stack[--sp], 0, slots[code[pc++]], 0, n);
+                    break;
+                case Program.POP:
+                    sp--;
+                    break;
+                case Program.NEG:
+                case Program.SIN:
+                case Program.COS:
+                case Program.LOG:
+                case Program.EXP:
+                case Program.SQRT:
+                    kernels.unary(opcode, stack[sp - 1], n);
+                    break;
+                case Program.HALT:
+                    return;
+                default:
+                    sp--;
+                    if(squares[pc - 1]) {
+                        kernels.binary(Program.MUL, stack[sp - 1], stack[sp - 1], n);
+                        break;
+                    }
+                    kernels.binary(opcode, stack[sp - 1], stack[sp], n);
+                    break;
+            }
+        }
+    }
+
+    // the first thing in the program a batch can't do, or null
+    private static String unsupported(Program program) {
+
+        int[] code = program.code;
+
+        for(int pc = 0; pc < code.length; pc += Program.hasArgument(code[pc]) ? 2 : 1) {
+            switch (code[pc]) {
+                case Program.CONST:
+                    if(!program.constants[code[pc + 1]].isDouble()) {
+                        return "the non-numeric constant " + program.constants[code[pc + 1]];
+                    }
+                    break;
+                case Program.LOAD:
+                case Program.STORE:
+                case Program.POP:
+                case Program.ADD:
+                case Program.SUB:
+                case Program.MUL:
+                case Program.DIV:
+                case Program.MOD:
+                case Program.POW:
+                case Program.NEG:
+                case Program.SIN:
+                case Program.COS:
+                case Program.LOG:
+                case Program.EXP:
+                case Program.SQRT:
+                case Program.HALT:
+                    break;
+                default:
+                    return Program.OPCODE_NAMES[code[pc]];
+            }
+        }
+
+        return null;
+    }
+
+    private static String[] names(Program program, int[] slots) {
+
+        String[] names = new String[slots.length];
+
+        for(int i = 0; i < slots.length; i++) {
+            names[i] = program.names[slots[i]];
+        }
+
+        return names;
+    }
+}
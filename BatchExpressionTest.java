@@ -0,0 +1,69 @@
+import java.util.Random;
+
+// checks that a batch gives bit for bit what running the script row by row
+// gives, with the plain loops and with the vector kernels:
+//   java --add-modules jdk.incubator.vector BatchExpressionTest [rows]
+public class BatchExpressionTest {
+
+    private static final String FORMULA = "x = a ^ b - k ^ 2\ny = s(a) * c(b) + l(k) / e(b / 100) - sqrt(x ^ 2 + 1) % 3\n";
+
+    public static void main(String[] args) {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        BatchExpression scalar = new BatchExpression(BatchExpression.compile(FORMULA).program(), new ScalarKernels());
+        BatchExpression vector = new BatchExpression(scalar.program(), BatchExpression.kernels());
+        Program program = scalar.program();
+
+        String[] inputs = scalar.inputs();
+        String[] outputs = scalar.outputs();
+        double[][] columns = new double[inputs.length][rows];
+        Random random = new Random(1);
+        for(double[] column : columns) {
+            for(int i = 0; i < rows; i++) {
+                column[i] = (random.nextDouble() - 0.2) * 100;
+            }
+        }
+
+        double[][] expected = new double[outputs.length][rows];
+        Interpreter interpreter = new Interpreter(program);
+        for(int r = 0; r < rows; r++) {
+            interpreter.reset();
+            for(int i = 0; i < inputs.length; i++) {
+                interpreter.set(program.slot(inputs[i]), new Value(columns[i][r]));
+            }
+            interpreter.run();
+            for(int i = 0; i < outputs.length; i++) {
+                expected[i][r] = interpreter.get(program.slot(outputs[i])).asDouble();
+            }
+        }
+
+        System.out.println("rows: " + rows + ", kernels: " + BatchExpression.kernels().getClass().getName());
+
+        int failures = check("scalar", scalar, columns, expected, outputs, rows) + check("vector", vector, columns, expected, outputs, rows);
+
+        if(failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+
+        System.out.println("ok");
+    }
+
+    private static int check(String name, BatchExpression batch, double[][] columns, double[][] expected, String[] outputs, int rows) {
+
+        double[][] results = new double[outputs.length][rows];
+        batch.evaluate(columns, results, rows);
+
+        for(int i = 0; i < outputs.length; i++) {
+            for(int r = 0; r < rows; r++) {
+                if(Double.doubleToLongBits(results[i][r]) != Double.doubleToLongBits(expected[i][r])) {
+                    System.out.println(name + ": " + outputs[i] + " in row " + r + " is " + results[i][r] + ", row by row " + expected[i][r]);
+                    return 1;
+                }
+            }
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// runs many scripts in one process on a work-stealing pool. Every script is
+// compiled and run by itself, with its own interpreter, and what it prints
+// is collected and written out in the order the scripts were given, each
+// after the same "parsing:" line a run of its own would print, so the
+// output doesn't depend on which one finished first. The lexer's and
+// parser's DFA caches are static, so every worker adds to and profits from
+// the same ones
+public class BatchRunner {
+
+    // what each script prints is held until its turn to be written
+    private static final int CAPTURE_CAPACITY = 1 << 13;
+
+    // scripts run alongside each other, so none may take the console's input
+    private static final InputSource NO_INPUT = () -> {
+        throw new RuntimeException("read() is not available in batch mode");
+    };
+
+    // compiles a script file
+    public interface Loader {
+        Program load(String file) throws Exception;
+    }
+
+    private final Loader loader;
+    private final int threads;
+
+    // takes turns running the scripts, if set; otherwise each runs to the end on its pool thread
+    private final Scheduler scheduler;
+
+    // for each script, so a runaway one fails instead of holding up the batch; 0 for no limit
+    private final long maxOperations;
+    private final long timeoutMillis;
+
+    public BatchRunner(Loader loader, int threads) {
+        this(loader, threads, null, 0, 0);
+    }
+
+    public BatchRunner(Loader loader, int threads, Scheduler scheduler, long maxOperations, long timeoutMillis) {
+        this.loader = loader;
+        this.threads = threads;
+        this.scheduler = scheduler;
+        this.maxOperations = maxOperations;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // files, and directories whose files are all scripts; in path order within a directory
+    public static List<String> scripts(List<String> paths) throws IOException {
+
+        List<String> scripts = new ArrayList<String>();
+
+        for(String path : paths) {
+            if(Files.isDirectory(Paths.get(path))) {
+                try(Stream<Path> files = Files.walk(Paths.get(path))) {
+                    scripts.addAll(files.filter(Files::isRegularFile).sorted().map(Path::toString).collect(Collectors.toList()));
+                }
+            }
+            else {
+                scripts.add(path);
+            }
+        }
+
+        return scripts;
+    }
+
+    // returns how many scripts failed; a failure is reported in the output, in its script's place
+    public int run(List<String> scripts, BufferedOutputSink out) throws Exception {
+
+        if(scheduler != null) {
+            return schedule(scripts, out);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        int failed = 0;
+
+        try {
+            for(String script : scripts) {
+
+                pending.add(pool.submit(() -> run(script)));
+
+                // enough queued to keep every worker busy, not every output in memory
+                if(pending.size() > threads * 8) {
+                    failed += write(pending.remove().get(), out);
+                }
+            }
+
+            while(!pending.isEmpty()) {
+                failed += write(pending.remove().get(), out);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        out.flush();
+
+        return failed;
+    }
+
+    // every script submitted to the scheduler at once, compiled on the pool first;
+    // what each cost goes to stderr
+    private int schedule(List<String> scripts, BufferedOutputSink out) throws Exception {
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Future<Program>> programs = new ArrayList<Future<Program>>();
+        List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>();
+        List<BufferedOutputSink> sinks = new ArrayList<BufferedOutputSink>();
+        List<Scheduler.Script> running = new ArrayList<Scheduler.Script>();
+        int failed = 0;
+
+        try {
+            for(String script : scripts) {
+                programs.add(pool.submit(() -> loader.load(script)));
+            }
+
+            for(int i = 0; i < scripts.size(); i++) {
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                BufferedOutputSink output = new BufferedOutputSink(Channels.newChannel(bytes), CAPTURE_CAPACITY);
+                output.append(ByteBuffer.wrap(("parsing: " + scripts.get(i) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+                Scheduler.Script scheduled = null;
+
+                try {
+                    scheduled = scheduler.submit(programs.get(i).get(), output, NO_INPUT, limits());
+                }
+                catch(ExecutionException e) {
+                    output.append(error(e.getCause()));
+                }
+
+                outputs.add(bytes);
+                sinks.add(output);
+                running.add(scheduled);
+            }
+
+            for(int i = 0; i < scripts.size(); i++) {
+
+                Scheduler.Script scheduled = running.get(i);
+
+                if(scheduled == null) {
+                    failed++;
+                }
+                else {
+                    try {
+                        scheduled.done().join();
+                    }
+                    catch(CompletionException e) {
+                        failed++;
+                        // after what the script printed before it failed
+                        sinks.get(i).append(error(e.getCause()));
+                    }
+
+                    System.err.printf("%s: %.3f ms in %d slices%n", scripts.get(i), scheduled.runTime() / 1e6, scheduled.slices());
+                }
+
+                sinks.get(i).flush();
+                out.append(ByteBuffer.wrap(outputs.get(i).toByteArray()));
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        out.flush();
+
+        return failed;
+    }
+
+    private ExecutionLimits limits() {
+        return maxOperations > 0 || timeoutMillis > 0 ? new ExecutionLimits(maxOperations, timeoutMillis) : null;
+    }
+
+    private static ByteBuffer error(Throwable e) {
+        // a missing file's message is just its name
+        String message = e instanceof StackOverflowError ? "nested too deeply" :
+                e instanceof RuntimeException ? String.valueOf(e.getMessage()) : e.toString();
+        return ByteBuffer.wrap(("error: " + message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // the script's whole output, its last byte being 1 if it failed and 0 if not
+    private byte[] run(String script) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BufferedOutputSink output = new BufferedOutputSink(Channels.newChannel(bytes), CAPTURE_CAPACITY);
+        boolean ok = false;
+
+        output.append(ByteBuffer.wrap(("parsing: " + script + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+
+        try {
+            Interpreter interpreter = new Interpreter(loader.load(script), output, NO_INPUT);
+            interpreter.limit(limits());
+            interpreter.run();
+            ok = true;
+        }
+        catch(Exception | StackOverflowError e) {
+            output.flush();
+            output.append(error(e));
+        }
+        finally {
+            output.flush();
+        }
+
+        bytes.write(ok ? 0 : 1);
+
+        return bytes.toByteArray();
+    }
+
+    private static int write(byte[] result, BufferedOutputSink out) {
+        out.append(ByteBuffer.wrap(result, 0, result.length - 1));
+        return result[result.length - 1];
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// reads what a BinaryOutputSink wrote, one value at a time:
+//   java BinaryOutputReader file   prints it as text
+public class BinaryOutputReader implements Closeable {
+
+    private final InputStream in;
+    private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+    public BinaryOutputReader(InputStream in) throws IOException {
+
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16);
+
+        byte[] header = this.in.readNBytes(BinaryOutputSink.MAGIC.length + 1);
+
+        if(header.length < BinaryOutputSink.MAGIC.length + 1 ||
+                !Arrays.equals(Arrays.copyOf(header, BinaryOutputSink.MAGIC.length), BinaryOutputSink.MAGIC)) {
+            throw new IOException("not binary calculator output");
+        }
+
+        if(header[BinaryOutputSink.MAGIC.length] != BinaryOutputSink.FORMAT_VERSION) {
+            throw new IOException("unsupported format version: " + header[BinaryOutputSink.MAGIC.length]);
+        }
+    }
+
+    // the next value, or null after the last one
+    public Value read() throws IOException {
+
+        int tag = in.read();
+
+        switch (tag) {
+            case -1:
+                return null;
+            case 'D':
+                return new Value(fill(8).getDouble());
+            case 'B':
+                return new Value(fill(1).get() != 0);
+            case 'N':
+                return new Value(null);
+            case 'S':
+                int length = fill(4).getInt();
+                byte[] bytes = in.readNBytes(length);
+                if(bytes.length < length) {
+                    throw new EOFException("cut short in a string");
+                }
+                return new Value(new String(bytes, StandardCharsets.UTF_8));
+            default:
+                throw new IOException("unknown tag: " + tag);
+        }
+    }
+
+    private ByteBuffer fill(int bytes) throws IOException {
+
+        scratch.clear();
+
+        if(in.readNBytes(scratch.array(), 0, bytes) < bytes) {
+            throw new EOFException("cut short in a value");
+        }
+
+        scratch.limit(bytes);
+        return scratch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        BufferedOutputSink out = BufferedOutputSink.stdout();
+
+        try(BinaryOutputReader reader = new BinaryOutputReader(args.length > 0 ? new FileInputStream(args[0]) : System.in)) {
+            for(Value value = reader.read(); value != null; value = reader.read()) {
+                out.print(value);
+            }
+        }
+        finally {
+            out.flush();
+        }
+    }
+}
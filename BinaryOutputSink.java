@@ -0,0 +1,56 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// printed values as frames instead of text, for when the next stage is a
+// program too: after a 5 byte header ("CALO" and a format version) each value
+// is a tag byte and its payload, all little-endian:
+//   'D' double (8 bytes)   'B' boolean (1 byte, 0 or 1)
+//   'S' string (int byte count, then UTF-8)   'N' nil (nothing)
+// BinaryOutputReader reads it back
+public class BinaryOutputSink extends BufferedOutputSink {
+
+    static final byte[] MAGIC = {'C', 'A', 'L', 'O'};
+    static final byte FORMAT_VERSION = 1;
+
+    public BinaryOutputSink(WritableByteChannel channel) {
+        super(channel);
+        reserve(MAGIC.length + 1).order(ByteOrder.LITTLE_ENDIAN).put(MAGIC).put(FORMAT_VERSION);
+    }
+
+    public static BinaryOutputSink stdout() {
+        return new BinaryOutputSink(Channels.newChannel(new FileOutputStream(FileDescriptor.out)));
+    }
+
+    public static BinaryOutputSink toFile(Path file) throws IOException {
+        return new BinaryOutputSink(FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    @Override
+    public synchronized void print(Value value) {
+
+        if(value.isDouble()) {
+            reserve(9).put((byte) 'D').putDouble(value.asDouble());
+        }
+        else if(value.isBoolean()) {
+            reserve(2).put((byte) 'B').put((byte) (value.asBoolean() ? 1 : 0));
+        }
+        else if(value.value == null) {
+            reserve(1).put((byte) 'N');
+        }
+        else {
+            byte[] bytes = value.asString().getBytes(StandardCharsets.UTF_8);
+            reserve(5).put((byte) 'S').putInt(bytes.length);
+            append(ByteBuffer.wrap(bytes));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// encodes printed values straight into one large buffer and writes it out
+// in a single call when it fills up or is flushed, instead of a synchronized,
+// autoflushed System.out.println per value
+public class BufferedOutputSink implements OutputSink {
+
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static BufferedOutputSink stdout;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    public BufferedOutputSink(WritableByteChannel channel) {
+        this(channel, DEFAULT_CAPACITY);
+    }
+
+    public BufferedOutputSink(WritableByteChannel channel, int capacity) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    // the one sink for standard output; every writer to it has to share it,
+    // or their buffers would come out in the wrong order
+    public static synchronized BufferedOutputSink stdout() {
+
+        if(stdout == null) {
+            stdout = new BufferedOutputSink(Channels.newChannel(new FileOutputStream(FileDescriptor.out))) {
+                @Override
+                protected void write() {
+                    // whatever went through System.out (the "parsing:" line, say) comes first
+                    System.out.flush();
+                    super.write();
+                }
+            };
+        }
+
+        return stdout;
+    }
+
+    // writes to the file through its channel, replacing what was in it
+    public static BufferedOutputSink toFile(Path file) throws IOException {
+        return new BufferedOutputSink(FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    @Override
+    public synchronized void print(Value value) {
+
+        if(value.isDouble()) {
+            ensure(NumberFormatter.MAX_LENGTH);
+            NumberFormatter.write(value.asDouble(), buffer);
+        }
+        else if(value.isBoolean()) {
+            ensure(1);
+            buffer.put((byte) (value.asBoolean() ? '1' : '0'));
+        }
+        else {
+            put(value.toString());
+        }
+
+        ensure(NEWLINE.length);
+        buffer.put(NEWLINE);
+    }
+
+    // bytes already encoded elsewhere, after everything printed so far
+    public synchronized void append(ByteBuffer bytes) {
+
+        if(bytes.remaining() > buffer.remaining()) {
+            flush();
+        }
+
+        if(bytes.remaining() <= buffer.remaining()) {
+            buffer.put(bytes);
+            return;
+        }
+
+        // too large to be worth copying
+        try {
+            while(bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if(buffer.position() > 0) {
+            write();
+        }
+    }
+
+    private void put(String text) {
+
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+
+        // a value longer than the buffer goes out in pieces
+        while(encoder.encode(chars, buffer, true).isOverflow()) {
+            write();
+        }
+
+        while(encoder.flush(buffer) == CoderResult.OVERFLOW) {
+            write();
+        }
+    }
+
+    private void ensure(int bytes) {
+        if(buffer.remaining() < bytes) {
+            write();
+        }
+    }
+
+    // the buffer, with room for at least this many more bytes, for subclasses
+    // that encode values their own way; call with the sink's lock held
+    protected ByteBuffer reserve(int bytes) {
+        ensure(bytes);
+        return buffer;
+    }
+
+    protected void write() {
+
+        buffer.flip();
+
+        try {
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            buffer.clear();
+        }
+    }
+}
@@ -1,11 +1,21 @@
 grammar Calculator;
 
+// with terminators on (see TerminatorFilter) newlines and ';' end statements
+@parser::members {
+public boolean terminators = false;
+}
+
+@lexer::members {
+public boolean terminators = false;
+}
+
 parse
  : block EOF
  ;
 
 block
- : stat*
+ : {!terminators}? (stat | SCOL)*
+ | {terminators}? (SCOL | NL)* (stat (SCOL | NL)+)*
  ;
 
 stat
@@ -13,6 +23,7 @@ stat
  | if_stat 
  | while_stat
  | for_stat
+ | parallel_stat
  | cont
  | brk 
  | ret
@@ -45,9 +56,14 @@ for_stat
  : FOR OPAR assignment SCOL expr SCOL expr CPAR stat_block
  ;
 
+// each block on a thread of its own, all finished before the next statement
+parallel_stat
+ : PARALLEL (OBRACE block CBRACE)+
+ ;
+
 print
  : expr
- | PRINT (expr',')* expr
+ | PRINT expr (',' expr)*
  ;
 
 cont: CONT ;
@@ -118,6 +134,7 @@ PRINT : 'print';
 BREAK : 'break';
 CONT: 'continue';
 RET: 'return'; 
+PARALLEL: 'parallel';
 
 SIN: 's';
 COS: 'c';
@@ -146,8 +163,11 @@ STRING
 COMMENT
  : '#' ~[\r\n]* -> skip
  ;
+NL
+ : '\r'? '\n' {if(!terminators) skip();}
+ ;
 SPACE
- : [ \t\r\n] -> skip
+ : [ \t\r] -> skip
  ;
 OTHER
  : . 
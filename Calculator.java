@@ -0,0 +1,182 @@
+import java.util.Map;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+// the library entry point: a script compiled once and evaluated any number
+// of times, from any number of threads at once. Each eval() runs on an
+// Interpreter of its own, so all a Calculator holds is the Program, which
+// never changes after compiling:
+//
+//   Calculator area = Calculator.compile("a = w * h");
+//   Map<String, Object> vars = new HashMap<>(Map.of("w", 2, "h", 3));
+//   area.eval(vars);   // vars now also has a = 6.0, w and h stay Integers
+public final class Calculator {
+
+    private static final InputSource NO_INPUT = () -> {
+        throw new RuntimeException("read() has no input here");
+    };
+
+    private final Program program;
+
+    // the slots the script stores to or increments, the only ones eval() writes back
+    private final boolean[] assigned;
+
+    private Calculator(Program program) {
+        this.program = program;
+        this.assigned = new boolean[program.names.length];
+
+        int[] code = program.code;
+        for(int pc = 0; pc < code.length; pc += Program.hasArgument(code[pc]) ? 2 : 1) {
+            int opcode = code[pc];
+            if(opcode == Program.STORE || (opcode >= Program.PREINC && opcode <= Program.POSTDEC)) {
+                assigned[code[pc + 1]] = true;
+            }
+        }
+    }
+
+    // fails on the first syntax error, rather than printing it and going on
+    public static Calculator compile(String source) {
+
+        BaseErrorListener fail = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object symbol, int line, int column, String message, RecognitionException e) {
+                throw new RuntimeException("line " + line + ":" + column + " " + message);
+            }
+        };
+
+        CalculatorLexer lexer = new CalculatorLexer(CharStreams.fromString(source));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(fail);
+
+        CalculatorParser parser = new CalculatorParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        parser.addErrorListener(fail);
+
+        return new Calculator(ProgramCompiler.compile(parser.parse()));
+    }
+
+    public static Calculator of(Program program) {
+        return new Calculator(program);
+    }
+
+    public Program program() {
+        return program;
+    }
+
+    public Object eval() {
+        return eval(null, null, NO_INPUT);
+    }
+
+    public Object eval(Map<String, Object> bindings) {
+        return eval(bindings, null, NO_INPUT);
+    }
+
+    public Object eval(Map<String, Object> bindings, OutputSink output) {
+        return eval(bindings, output, NO_INPUT);
+    }
+
+    // runs the script with the bindings' values for its variables, then puts
+    // the variables it assigned back into them (when they can be changed);
+    // the others, and any it left as they were, keep their Java values. Returns
+    // the last value printed (a bare expression statement prints), as Java
+    // sees it: Double, Boolean, String or null. Output goes nowhere when null
+    public Object eval(Map<String, Object> bindings, OutputSink output, InputSource input) {
+        return eval(bindings, output, input, null);
+    }
+
+    // the same, stopped with a LimitExceededException past the limits (see ExecutionLimits)
+    public Object eval(Map<String, Object> bindings, OutputSink output, InputSource input, ExecutionLimits limits) {
+
+        Result result = new Result(output);
+        Interpreter interpreter = new Interpreter(program, result, input);
+        interpreter.limit(limits);
+
+        // what each slot started as, to tell a value the script stored from one passed in
+        Value[] initial = new Value[program.names.length];
+
+        if(bindings != null) {
+            for(Map.Entry<String, Object> binding : bindings.entrySet()) {
+                int slot = program.slot(binding.getKey());
+                if(slot >= 0) {
+                    initial[slot] = value(binding.getValue());
+                    interpreter.set(slot, initial[slot]);
+                }
+            }
+        }
+
+        interpreter.run();
+
+        if(bindings != null) {
+            for(int slot = 0; slot < program.names.length; slot++) {
+                Value value = interpreter.get(slot);
+                if(assigned[slot] && value != null && value != initial[slot]) {
+                    try {
+                        bindings.put(program.names[slot], java(value));
+                    }
+                    catch(UnsupportedOperationException e) {
+                        // read-only bindings: imports only
+                        break;
+                    }
+                }
+            }
+        }
+
+        return result.last == null ? null : java(result.last);
+    }
+
+    // a Java object as a script value: numbers become doubles
+    public static Value value(Object object) {
+
+        if(object instanceof Value) {
+            return (Value) object;
+        }
+
+        if(object instanceof Number) {
+            return new Value(((Number) object).doubleValue());
+        }
+
+        if(object == null || object instanceof Boolean || object instanceof String) {
+            return new Value(object);
+        }
+
+        if(object instanceof Character) {
+            return new Value(object.toString());
+        }
+
+        throw new IllegalArgumentException("no script value for a " + object.getClass().getName());
+    }
+
+    public static Object java(Value value) {
+        return value.value;
+    }
+
+    // remembers the last value printed, and passes it on
+    private static class Result implements OutputSink {
+
+        private final OutputSink output;
+        private Value last;
+
+        Result(OutputSink output) {
+            this.output = output;
+        }
+
+        @Override
+        public void print(Value value) {
+            last = value;
+            if(output != null) {
+                output.print(value);
+            }
+        }
+
+        @Override
+        public void flush() {
+            if(output != null) {
+                output.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// javax.script on top of Calculator: variables come from the context's
+// global and engine scopes, the ones a script assigns go back to the engine
+// scope, print goes to the context's writer, and read() reads numbers from
+// its reader
+public class CalculatorScriptEngine extends AbstractScriptEngine implements Compilable {
+
+    private final ScriptEngineFactory factory;
+
+    // read() input for the reader last seen, kept so nothing it read ahead is lost
+    private Reader reader;
+    private TextInput input;
+
+    public CalculatorScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return compile(reader).eval(context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        try {
+            return new Compiled(Calculator.compile(script));
+        }
+        catch(RuntimeException e) {
+            throw error(e);
+        }
+    }
+
+    @Override
+    public CompiledScript compile(Reader reader) throws ScriptException {
+
+        StringBuilder script = new StringBuilder();
+        char[] buffer = new char[8192];
+
+        try {
+            for(int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+                script.append(buffer, 0, read);
+            }
+        }
+        catch(IOException e) {
+            throw new ScriptException(e);
+        }
+
+        return compile(script.toString());
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private synchronized TextInput input(Reader reader) {
+
+        if(reader != this.reader) {
+            this.reader = reader;
+            this.input = new TextInput(new AsciiStream(reader));
+        }
+
+        return input;
+    }
+
+    private static ScriptException error(RuntimeException e) {
+        ScriptException error = new ScriptException(e.getMessage());
+        error.initCause(e);
+        return error;
+    }
+
+    private class Compiled extends CompiledScript {
+
+        private final Calculator calculator;
+
+        Compiled(Calculator calculator) {
+            this.calculator = calculator;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+
+            // engine scope wins over global scope, as in every other engine
+            Variables variables = new Variables();
+            Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+            Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+
+            // locked against the other runs of this engine writing back at the same time
+            if(global != null) {
+                synchronized(global) {
+                    variables.putAll(global);
+                }
+            }
+            if(engine != null) {
+                synchronized(engine) {
+                    variables.putAll(engine);
+                }
+            }
+            variables.assigned.clear();
+
+            WriterSink output = new WriterSink(context.getWriter());
+            InputSource input = () -> input(context.getReader()).readDouble();
+
+            try {
+                Object result = calculator.eval(variables, output, input);
+                // only what the script assigned: a global it just read stays global
+                if(engine != null) {
+                    synchronized(engine) {
+                        engine.putAll(variables.assigned);
+                    }
+                }
+                return result;
+            }
+            catch(RuntimeException e) {
+                throw error(e);
+            }
+            finally {
+                output.flush();
+            }
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return CalculatorScriptEngine.this;
+        }
+    }
+
+    // the scopes merged for a run, noting what Calculator.eval writes back
+    private static class Variables extends HashMap<String, Object> {
+
+        final Map<String, Object> assigned = new HashMap<String, Object>();
+
+        @Override
+        public Object put(String name, Object value) {
+            assigned.put(name, value);
+            return super.put(name, value);
+        }
+    }
+
+    // a Reader's characters as bytes for TextInput: numbers are ASCII, and
+    // anything else only has to stay a non-space
+    private static class AsciiStream extends InputStream {
+
+        private final Reader reader;
+        private char[] chars = new char[0];
+
+        AsciiStream(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = reader.read();
+            return c < 0 ? -1 : c < 0x80 ? c : '?';
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+
+            if(chars.length < length) {
+                chars = new char[length];
+            }
+
+            int read = reader.read(chars, 0, length);
+
+            for(int i = 0; i < read; i++) {
+                bytes[offset + i] = (byte) (chars[i] < 0x80 ? chars[i] : '?');
+            }
+
+            return read;
+        }
+    }
+}
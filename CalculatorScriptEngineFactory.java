@@ -0,0 +1,90 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+// registered in META-INF/services, so new ScriptEngineManager().getEngineByName("calculator") finds it
+public class CalculatorScriptEngineFactory implements ScriptEngineFactory {
+
+    @Override
+    public String getEngineName() {
+        return "Calculator";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return ProgramCache.ENGINE_VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return Collections.singletonList("mu");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<String> getNames() {
+        return Arrays.asList("calculator", "mu");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "mu";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "1";
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE:
+                return getEngineName();
+            case ScriptEngine.ENGINE_VERSION:
+                return getEngineVersion();
+            case ScriptEngine.NAME:
+                return getNames().get(0);
+            case ScriptEngine.LANGUAGE:
+                return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION:
+                return getLanguageVersion();
+            case "THREADING":
+                // scripts may run at once on any threads; each run reads the
+                // scopes when it starts and writes what it assigned when it ends
+                return "MULTITHREADED";
+            default:
+                return null;
+        }
+    }
+
+    // the language has no objects or methods; the nearest thing is a call of
+    // a built-in function (sqrt, s, c, l, e), so that is what this gives, with
+    // the object left out. Only the built-ins' one argument calls will parse
+    @Override
+    public String getMethodCallSyntax(String object, String method, String... args) {
+        return method + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay.replace("\"", "\"\"") + "\"";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        return String.join("\n", statements);
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new CalculatorScriptEngine(this);
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+// evaluates scripts sent over a socket in one long-running JVM, so they run
+// on a warm parser and a JIT-compiled interpreter instead of paying for a
+// JVM start each. Every connection is a session with its own variables,
+// served on a virtual thread where the JVM has them. Requests and responses
+// are frames: a big-endian int length and that many bytes of UTF-8, the
+// response's length being preceded by a status byte, OK or ERROR. An OK
+// response carries what the script printed, an ERROR one the message
+public class CalculatorServer {
+
+    public static final byte OK = 'R';
+    public static final byte ERROR = 'E';
+
+    public static final int MAX_FRAME = 64 << 20;
+
+    // compiled scripts by source, shared by all sessions (a Calculator is immutable)
+    private static final int CACHED_SCRIPTS = 1024;
+    private final Map<String, Calculator> compiled = new ConcurrentHashMap<String, Calculator>();
+
+    // the client has no way of answering
+    private static final InputSource NO_INPUT = () -> {
+        throw new RuntimeException("read() is not available on the server");
+    };
+
+    // for each request, so no script can keep a session thread forever; 0 for no limit
+    private final long maxOperations;
+    private final long timeoutMillis;
+
+    public CalculatorServer() {
+        this(0, 0);
+    }
+
+    public CalculatorServer(long maxOperations, long timeoutMillis) {
+        this.maxOperations = maxOperations;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // "host:port" or ":port" for TCP (":port" on the loopback address), anything else is a Unix domain socket path
+    public static SocketAddress address(String spec) {
+
+        int colon = spec.lastIndexOf(':');
+
+        if(colon >= 0 && colon < spec.length() - 1 && spec.substring(colon + 1).chars().allMatch(Character::isDigit)) {
+            int port = Integer.parseInt(spec.substring(colon + 1));
+            return colon == 0 ?
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port) :
+                    new InetSocketAddress(spec.substring(0, colon), port);
+        }
+
+        return UnixDomainSocketAddress.of(spec);
+    }
+
+    // serves until the process is stopped
+    public void serve(SocketAddress address) throws IOException {
+
+        ServerSocketChannel server;
+
+        if(address instanceof UnixDomainSocketAddress) {
+            Path path = ((UnixDomainSocketAddress) address).getPath();
+            // left behind by a server that didn't get to clean up
+            Files.deleteIfExists(path);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> path.toFile().delete()));
+        }
+        else {
+            server = ServerSocketChannel.open();
+        }
+
+        ExecutorService sessions = VirtualThreads.perTask();
+
+        try {
+            server.bind(address);
+            System.err.println("serving on " + address);
+
+            while(true) {
+                SocketChannel channel = server.accept();
+                sessions.execute(() -> session(channel));
+            }
+        }
+        finally {
+            sessions.shutdownNow();
+            server.close();
+        }
+    }
+
+    private void session(SocketChannel channel) {
+
+        Map<String, Object> variables = new HashMap<String, Object>();
+
+        try(SocketChannel connection = channel) {
+            for(String script = read(connection); script != null; script = read(connection)) {
+
+                StringWriter output = new StringWriter();
+
+                try {
+                    ExecutionLimits limits = maxOperations > 0 || timeoutMillis > 0 ? new ExecutionLimits(maxOperations, timeoutMillis) : null;
+                    compile(script).eval(variables, new WriterSink(output), NO_INPUT, limits);
+                    write(connection, OK, output.toString());
+                }
+                catch(RuntimeException | StackOverflowError e) {
+                    write(connection, ERROR, e instanceof StackOverflowError ? "nested too deeply" : String.valueOf(e.getMessage()));
+                }
+            }
+        }
+        catch(IOException e) {
+            // the client went away
+        }
+    }
+
+    private Calculator compile(String script) {
+
+        Calculator calculator = compiled.get(script);
+
+        if(calculator == null) {
+            calculator = Calculator.compile(script);
+            // crude, but it keeps a server fed endless distinct scripts from growing
+            if(compiled.size() >= CACHED_SCRIPTS) {
+                compiled.clear();
+            }
+            compiled.put(script, calculator);
+        }
+
+        return calculator;
+    }
+
+    // sends a script and returns what it printed; for clients
+    public static String request(ByteChannel channel, String script) throws IOException {
+
+        byte[] bytes = script.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes);
+        frame.flip();
+
+        while(frame.hasRemaining()) {
+            channel.write(frame);
+        }
+
+        ByteBuffer status = fill(channel, ByteBuffer.allocate(1));
+        String reply = read(channel);
+
+        if(status == null || reply == null) {
+            throw new IOException("the server closed the connection");
+        }
+
+        if(status.get(0) != OK) {
+            throw new RuntimeException(reply);
+        }
+
+        return reply;
+    }
+
+    // one frame's text, or null when the other side has closed
+    private static String read(ByteChannel channel) throws IOException {
+
+        ByteBuffer header = fill(channel, ByteBuffer.allocate(4));
+
+        if(header == null) {
+            return null;
+        }
+
+        int length = header.getInt(0);
+
+        if(length < 0 || length > MAX_FRAME) {
+            throw new IOException("bad frame length: " + length);
+        }
+
+        ByteBuffer body = fill(channel, ByteBuffer.allocate(length));
+
+        if(body == null) {
+            throw new IOException("connection closed in the middle of a frame");
+        }
+
+        return new String(body.array(), StandardCharsets.UTF_8);
+    }
+
+    private static void write(ByteChannel channel, byte status, String text) throws IOException {
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(5 + bytes.length).put(status).putInt(bytes.length).put(bytes);
+        frame.flip();
+
+        while(frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    // null if the channel ends before the buffer is full
+    private static ByteBuffer fill(ByteChannel channel, ByteBuffer buffer) throws IOException {
+
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer) < 0) {
+                return null;
+            }
+        }
+
+        return buffer;
+    }
+}
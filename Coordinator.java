@@ -0,0 +1,202 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// map mode spread over worker processes: the input is cut into partitions
+// of whole rows, each piped through its own "Main -map -" process, and the
+// results are written back in partition order. A partition whose worker
+// fails is run again in a fresh process. Each worker has its own heap and
+// GC, so the work scales past what one JVM handles well
+public class Coordinator {
+
+    public static final int PARTITION_ROWS = 250000;
+    public static final int RETRIES = 2;
+
+    private final String script;
+    private final List<String> options;
+    private final int workers;
+
+    // options: passed on to every worker (-select, -terminators, -tsv, -max-ops, -timeout)
+    public Coordinator(String script, List<String> options, int workers) {
+        this.script = script;
+        this.options = options;
+        this.workers = workers;
+    }
+
+    public void run(Reader in, BufferedOutputSink out) throws Exception {
+
+        BufferedReader reader = new BufferedReader(in, 1 << 16);
+        String header = CsvMapper.record(reader);
+
+        if(header == null) {
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        boolean first = true;
+
+        try {
+            int partition = 0;
+
+            while(true) {
+
+                StringBuilder rows = new StringBuilder(header).append('\n');
+                int count = 0;
+                String line;
+
+                while(count < PARTITION_ROWS && (line = CsvMapper.record(reader)) != null) {
+                    rows.append(line).append('\n');
+                    count++;
+                }
+
+                if(count == 0) {
+                    break;
+                }
+
+                byte[] input = rows.toString().getBytes(StandardCharsets.UTF_8);
+                int number = partition++;
+                pending.add(pool.submit(() -> attempt(number, input)));
+
+                // keep every worker busy, but only so many partitions in memory
+                if(pending.size() > workers * 2) {
+                    first = write(take(pending.remove()), first, out);
+                }
+            }
+
+            while(!pending.isEmpty()) {
+                first = write(take(pending.remove()), first, out);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        out.flush();
+    }
+
+    private byte[] attempt(int partition, byte[] input) throws Exception {
+
+        String failure = null;
+
+        for(int attempt = 0; attempt <= RETRIES; attempt++) {
+
+            File errors = File.createTempFile("worker", ".err");
+
+            try {
+                Process process = new ProcessBuilder(command())
+                        .redirectError(errors)
+                        .start();
+
+                // fed from another thread, or a worker blocked on a full
+                // output pipe and we on a full input pipe would wait forever
+                Thread feeder = new Thread(() -> {
+                    try(OutputStream stdin = process.getOutputStream()) {
+                        stdin.write(input);
+                    }
+                    catch(IOException e) {
+                        // the worker died: its exit status says so
+                    }
+                }, "partition-" + partition);
+                feeder.start();
+
+                byte[] output = process.getInputStream().readAllBytes();
+                int status = process.waitFor();
+                feeder.join();
+
+                if(status == 0) {
+                    return output;
+                }
+
+                failure = "exit status " + status + ": " + message(errors);
+            }
+            finally {
+                errors.delete();
+            }
+        }
+
+        throw new RuntimeException("partition " + partition + " failed " + (RETRIES + 1) + " times, last with " + failure);
+    }
+
+    private List<String> command() {
+
+        List<String> command = new ArrayList<String>();
+
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+
+        if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            command.add("--add-modules");
+            command.add("jdk.incubator.vector");
+        }
+
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.add("-map");
+        command.add("-");
+        command.add("-threads");
+        command.add(String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / workers)));
+        command.addAll(options);
+        command.add(script);
+
+        return command;
+    }
+
+    // every partition's output starts with the header line: keep only the first
+    private static boolean write(byte[] output, boolean first, BufferedOutputSink out) {
+
+        int start = 0;
+
+        if(!first) {
+            while(start < output.length && output[start] != '\n') {
+                start++;
+            }
+            start++;
+        }
+
+        if(start < output.length) {
+            out.append(ByteBuffer.wrap(output, start, output.length - start));
+        }
+
+        return false;
+    }
+
+    // what the worker said, without the stack trace under it
+    private static String message(File errors) throws IOException {
+
+        for(String line : Files.readAllLines(errors.toPath(), StandardCharsets.UTF_8)) {
+            if(line.startsWith("Exception")) {
+                return line;
+            }
+        }
+
+        return "no message";
+    }
+
+    private static byte[] take(Future<byte[]> partition) throws Exception {
+
+        try {
+            return partition.get();
+        }
+        catch(ExecutionException e) {
+            if(e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// runs a compiled script once per row of a CSV (or TSV) file: the header
+// names the variables each row's fields are assigned to, and the selected
+// variables' values after the run make up the output row. Rows are read in
+// chunks that are evaluated on a pool of threads and written back in order,
+// with only a few chunks in flight at a time
+public class CsvMapper {
+
+    public static final int CHUNK_ROWS = 4096;
+
+    // map mode is about the variables; what a script prints goes nowhere
+    private static final OutputSink IGNORED = new OutputSink() {
+        @Override
+        public void print(Value value) {
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    private static final InputSource NO_INPUT = () -> {
+        throw new RuntimeException("read() is not available in map mode");
+    };
+
+    private final Program program;
+    private final char separator;
+    private final String[] outputs;
+    private final int threads;
+
+    // per row, 0 for no limit
+    private final long maxOperations;
+    private final long timeoutMillis;
+
+    // for scripts that are nothing but numeric assignments, whole chunks at once
+    private final BatchExpression batch;
+
+    // outputs: the variables to write, or null for all the script has besides the columns
+    public CsvMapper(Program program, char separator, String[] outputs, int threads) {
+        this(program, separator, outputs, threads, 0, 0);
+    }
+
+    // every row's run gets its own ExecutionLimits(maxOperations, timeoutMillis)
+    public CsvMapper(Program program, char separator, String[] outputs, int threads, long maxOperations, long timeoutMillis) {
+        this.program = program;
+        this.separator = separator;
+        this.outputs = outputs;
+        this.threads = threads;
+        this.maxOperations = maxOperations;
+        this.timeoutMillis = timeoutMillis;
+        this.batch = BatchExpression.accepts(program) ? new BatchExpression(program) : null;
+    }
+
+    public void run(Reader in, BufferedOutputSink out) throws Exception {
+
+        BufferedReader reader = new BufferedReader(in, 1 << 16);
+        String headerLine = record(reader);
+
+        if(headerLine == null) {
+            return;
+        }
+
+        String[] header = split(headerLine);
+        String[] selected = outputs != null ? outputs : assigned(header);
+        Layout layout = new Layout(header, selected);
+
+        ByteBuffer headerRow = ByteBuffer.allocate(64);
+        for(int i = 0; i < selected.length; i++) {
+            if(i > 0) {
+                headerRow = put(headerRow, (byte) separator);
+            }
+            headerRow = put(headerRow, new Value(selected[i]));
+        }
+        headerRow = put(headerRow, (byte) '\n');
+        headerRow.flip();
+        out.append(headerRow);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+
+        try {
+            long row = 1;
+
+            while(true) {
+
+                List<String> rows = new ArrayList<String>(CHUNK_ROWS);
+                String line;
+
+                while(rows.size() < CHUNK_ROWS && (line = record(reader)) != null) {
+                    if(!line.isEmpty()) {
+                        rows.add(line);
+                    }
+                }
+
+                if(rows.isEmpty()) {
+                    break;
+                }
+
+                long first = row;
+                pending.add(pool.submit(() -> evaluate(rows, first, layout)));
+                row += rows.size();
+
+                // the reader gets at most this far ahead of the writer
+                if(pending.size() > threads * 2) {
+                    out.append(take(pending.remove()));
+                }
+            }
+
+            while(!pending.isEmpty()) {
+                out.append(take(pending.remove()));
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        out.flush();
+    }
+
+    private ByteBuffer evaluate(List<String> rows, long first, Layout layout) {
+
+        List<String[]> fields = new ArrayList<String[]>(rows.size());
+        for(String row : rows) {
+            fields.add(split(row));
+        }
+
+        ByteBuffer buffer = layout.batchColumns != null ? evaluateBatch(fields, layout) : null;
+
+        return buffer != null ? buffer : evaluateRows(fields, first, layout);
+    }
+
+    private ByteBuffer evaluateRows(List<String[]> rows, long first, Layout layout) {
+
+        Interpreter interpreter = new Interpreter(program, IGNORED, NO_INPUT);
+        ByteBuffer buffer = ByteBuffer.allocate(rows.size() * (layout.outputSlots.length + 1) * 8);
+
+        for(int r = 0; r < rows.size(); r++) {
+
+            interpreter.reset();
+
+            if(maxOperations > 0 || timeoutMillis > 0) {
+                interpreter.limit(new ExecutionLimits(maxOperations, timeoutMillis));
+            }
+
+            String[] fields = rows.get(r);
+
+            for(int i = 0; i < fields.length && i < layout.inputSlots.length; i++) {
+                if(layout.inputSlots[i] >= 0) {
+                    interpreter.set(layout.inputSlots[i], value(fields[i]));
+                }
+            }
+
+            try {
+                interpreter.run();
+            }
+            catch(RuntimeException e) {
+                throw new RuntimeException("row " + (first + r) + ": " + e.getMessage(), e);
+            }
+
+            for(int i = 0; i < layout.outputSlots.length; i++) {
+                if(i > 0) {
+                    buffer = put(buffer, (byte) separator);
+                }
+                if(layout.outputSlots[i] >= 0) {
+                    buffer = put(buffer, interpreter.get(layout.outputSlots[i]));
+                }
+                else if(layout.passThrough[i] >= 0 && layout.passThrough[i] < fields.length) {
+                    buffer = put(buffer, new Value(fields[layout.passThrough[i]]));
+                }
+            }
+
+            buffer = put(buffer, (byte) '\n');
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    // null when a field the script reads isn't a number: the chunk then goes
+    // row by row, which gives the same result or the same error
+    private ByteBuffer evaluateBatch(List<String[]> rows, Layout layout) {
+
+        int[] batchColumns = layout.batchColumns;
+        double[][] columns = new double[batchColumns.length][rows.size()];
+
+        for(int r = 0; r < rows.size(); r++) {
+
+            String[] fields = rows.get(r);
+
+            for(int i = 0; i < batchColumns.length; i++) {
+
+                if(batchColumns[i] >= fields.length) {
+                    return null;
+                }
+
+                Value value = value(fields[batchColumns[i]]);
+
+                if(!value.isDouble()) {
+                    return null;
+                }
+
+                columns[i][r] = value.asDouble();
+            }
+        }
+
+        double[][] results = new double[batch.outputs().length][rows.size()];
+        batch.evaluate(columns, results, rows.size());
+
+        ByteBuffer buffer = ByteBuffer.allocate(rows.size() * (layout.outputSlots.length + 1) * 8);
+
+        for(int r = 0; r < rows.size(); r++) {
+
+            String[] fields = rows.get(r);
+
+            for(int i = 0; i < layout.outputSlots.length; i++) {
+                if(i > 0) {
+                    buffer = put(buffer, (byte) separator);
+                }
+                if(layout.batchOutputs[i] >= 0) {
+                    buffer = put(buffer, results[layout.batchOutputs[i]][r]);
+                }
+                else if(layout.batchInputs[i] >= 0) {
+                    buffer = put(buffer, columns[layout.batchInputs[i]][r]);
+                }
+                else if(layout.passThrough[i] >= 0 && layout.passThrough[i] < fields.length) {
+                    buffer = put(buffer, new Value(fields[layout.passThrough[i]]));
+                }
+            }
+
+            buffer = put(buffer, (byte) '\n');
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    // every variable of the script that isn't a column
+    private String[] assigned(String[] header) {
+
+        List<String> names = new ArrayList<String>();
+
+        for(String name : program.names()) {
+            if(column(header, name) < 0) {
+                names.add(name);
+            }
+        }
+
+        return names.toArray(new String[0]);
+    }
+
+    private static int column(String[] header, String name) {
+
+        for(int i = 0; i < header.length; i++) {
+            if(header[i].trim().equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    // a field as the script sees it: a number if it reads as one, nil if empty, a string otherwise
+    private static Value value(String field) {
+
+        if(field.isEmpty()) {
+            return new Value(null);
+        }
+
+        char first = field.charAt(0);
+
+        if((first >= '0' && first <= '9') || first == '-' || first == '+' || first == '.') {
+            try {
+                return new Value(Double.parseDouble(field));
+            }
+            catch(NumberFormatException e) {
+                // "-" or "1-2" say: text
+            }
+        }
+
+        return new Value(field);
+    }
+
+    // one record, which may span lines when a quoted field has newlines in it
+    static String record(BufferedReader reader) throws IOException {
+
+        String line = reader.readLine();
+
+        if(line == null) {
+            return null;
+        }
+
+        while(quotes(line) % 2 != 0) {
+            String next = reader.readLine();
+            if(next == null) {
+                break;
+            }
+            line = line + "\n" + next;
+        }
+
+        return line;
+    }
+
+    private static int quotes(String line) {
+
+        int count = 0;
+
+        for(int i = 0; i < line.length(); i++) {
+            if(line.charAt(i) == '"') {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private String[] split(String line) {
+
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for(int i = 0; i < line.length(); i++) {
+
+            char c = line.charAt(i);
+
+            if(quoted) {
+                if(c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                }
+                else if(c == '"') {
+                    quoted = false;
+                }
+                else {
+                    field.append(c);
+                }
+            }
+            else if(c == '"') {
+                quoted = true;
+            }
+            else if(c == separator) {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else if(c != '\r') {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+
+        return fields.toArray(new String[0]);
+    }
+
+    // a value as an output field: numbers as print shows them, booleans as
+    // 1 or 0, nil as an empty field, strings quoted when they need to be
+    private ByteBuffer put(ByteBuffer buffer, Value value) {
+
+        if(value == null || value.value == null) {
+            return buffer;
+        }
+
+        if(value.isDouble()) {
+            return put(buffer, value.asDouble());
+        }
+
+        if(value.isBoolean()) {
+            return put(buffer, (byte) (value.asBoolean() ? '1' : '0'));
+        }
+
+        String str = value.asString();
+
+        if(str.indexOf(separator) >= 0 || str.indexOf('"') >= 0 || str.indexOf('\n') >= 0) {
+            str = "\"" + str.replace("\"", "\"\"") + "\"";
+        }
+
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        buffer = ensure(buffer, bytes.length);
+        buffer.put(bytes);
+
+        return buffer;
+    }
+
+    private static ByteBuffer put(ByteBuffer buffer, double value) {
+        buffer = ensure(buffer, NumberFormatter.MAX_LENGTH);
+        NumberFormatter.write(value, buffer);
+        return buffer;
+    }
+
+    private static ByteBuffer put(ByteBuffer buffer, byte b) {
+        buffer = ensure(buffer, 1);
+        buffer.put(b);
+        return buffer;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+
+        if(buffer.remaining() >= bytes) {
+            return buffer;
+        }
+
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+
+        return larger;
+    }
+
+    private static ByteBuffer take(Future<ByteBuffer> chunk) throws Exception {
+
+        try {
+            return chunk.get();
+        }
+        catch(ExecutionException e) {
+            if(e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // where each column goes and each output comes from
+    private class Layout {
+
+        // the slot each column is assigned to, or -1
+        final int[] inputSlots;
+
+        // per output: the variable's slot, or the column copied as it is
+        final int[] outputSlots;
+        final int[] passThrough;
+
+        // batch mode: the column of each batch input, and per output the
+        // batch result or batch input it is (null when there is no batch)
+        final int[] batchColumns;
+        final int[] batchOutputs;
+        final int[] batchInputs;
+
+        Layout(String[] header, String[] selected) {
+
+            inputSlots = new int[header.length];
+            for(int i = 0; i < header.length; i++) {
+                inputSlots[i] = program.slot(header[i].trim());
+            }
+
+            outputSlots = new int[selected.length];
+            passThrough = new int[selected.length];
+            for(int i = 0; i < selected.length; i++) {
+                outputSlots[i] = program.slot(selected[i]);
+                // a column the script never mentions is copied as it is
+                passThrough[i] = outputSlots[i] < 0 ? column(header, selected[i]) : -1;
+            }
+
+            int[] columns = null;
+
+            if(batch != null) {
+                String[] inputs = batch.inputs();
+                columns = new int[inputs.length];
+                for(int i = 0; i < inputs.length; i++) {
+                    columns[i] = column(header, inputs[i]);
+                    // read but never given: let the row by row run report it
+                    if(columns[i] < 0) {
+                        columns = null;
+                        break;
+                    }
+                }
+            }
+
+            batchColumns = columns;
+            batchOutputs = new int[selected.length];
+            batchInputs = new int[selected.length];
+
+            if(columns != null) {
+                List<String> inputs = Arrays.asList(batch.inputs());
+                List<String> outputs = Arrays.asList(batch.outputs());
+                for(int i = 0; i < selected.length; i++) {
+                    batchOutputs[i] = outputs.indexOf(selected[i]);
+                    batchInputs[i] = inputs.indexOf(selected[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+// read() past the last number
+public class EndOfInputException extends RuntimeException {
+
+    public EndOfInputException() {
+        super("no more input");
+    }
+}
@@ -2,10 +2,11 @@
 import org.antlr.v4.runtime.misc.NotNull;
 
 import java.io.FileNotFoundException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.management.RuntimeErrorException;
 
@@ -15,7 +16,67 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
     public static final double SMALL_VALUE = 0.00000000001;
 
     // store variables (there's only one global scope!)
-    private Map<String, Value> memory = new HashMap<String, Value>();
+    private final VariableStore memory;
+
+    // where print goes and read() comes from
+    private final OutputSink output;
+    private final InputSource input;
+
+    // runs the loops it can in parallel, if set
+    private LoopParallelizer loops;
+
+    // what loop iterations may add up to, if set, and how many more to go before telling it
+    private ExecutionLimits limits;
+    private int untilCheck = ExecutionLimits.CHECK_INTERVAL;
+
+    public EvalVisitor() {
+        this(BufferedOutputSink.stdout());
+    }
+
+    public EvalVisitor(OutputSink output) {
+        this(output, TextInput.stdin());
+    }
+
+    public EvalVisitor(OutputSink output, InputSource input) {
+        this(new VariableStore(), output, input);
+    }
+
+    // several visitors can share one memory, on as many threads
+    EvalVisitor(VariableStore memory, OutputSink output, InputSource input) {
+        this.memory = memory;
+        this.output = output;
+        this.input = input;
+    }
+
+    public OutputSink output() {
+        return output;
+    }
+
+    public void parallelizeLoops(LoopParallelizer loops) {
+        this.loops = loops;
+    }
+
+    public void limit(ExecutionLimits limits) {
+        this.limits = limits;
+    }
+
+    // every loop iteration passes here
+    private void backEdge() {
+        if(limits != null && --untilCheck == 0) {
+            untilCheck = ExecutionLimits.CHECK_INTERVAL;
+            limits.charge(ExecutionLimits.CHECK_INTERVAL);
+        }
+    }
+
+    @Override
+    public Value visitParse(CalculatorParser.ParseContext ctx) {
+        try {
+            return visitChildren(ctx);
+        }
+        finally {
+            output.flush();
+        }
+    }
 
     // assignment/id overrides
     @Override
@@ -87,33 +148,25 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
 
     @Override 
     public Value visitPreIncExpr(CalculatorParser.PreIncExprContext ctx) {
-        String id = ctx.ID().getText();
-        Value value = memory.get(id);
-        memory.put(id, new Value(value.asDouble()+1));
+        Value value = memory.add(ctx.ID().getText(), 1);
         return new Value(value.asDouble()+1);
     }
 
     @Override 
     public Value visitPostIncExpr(CalculatorParser.PostIncExprContext ctx) {
-        String id = ctx.ID().getText();
-        Value value = memory.get(id);
-        memory.put(id, new Value(value.asDouble()+1));
+        Value value = memory.add(ctx.ID().getText(), 1);
         return new Value(value.asDouble());
     }
 
     @Override 
     public Value visitPreDecExpr(CalculatorParser.PreDecExprContext ctx) {
-        String id = ctx.ID().getText();
-        Value value = memory.get(id);
-        memory.put(id, new Value(value.asDouble()-1));
+        Value value = memory.add(ctx.ID().getText(), -1);
         return new Value(value.asDouble()-1);
     }
 
     @Override 
     public Value visitPostDecExpr(CalculatorParser.PostDecExprContext ctx) {
-        String id = ctx.ID().getText();
-        Value value = memory.get(id);
-        memory.put(id, new Value(value.asDouble()-1));
+        Value value = memory.add(ctx.ID().getText(), -1);
         return new Value(value.asDouble());
     }
 
@@ -215,8 +268,9 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
             case CalculatorParser.SQRT:
                 return new Value(Math.sqrt(value.asDouble()));
             case CalculatorParser.READ:
-                Scanner in = new Scanner(System.in);
-                return new Value(in.nextDouble());
+                // the prompt has to be on screen before we wait for the answer
+                output.flush();
+                return new Value(input.readDouble());
             default:
                 throw new RuntimeException("unknown operator: " + CalculatorParser.tokenNames[ctx.op.getType()]);
 
@@ -247,10 +301,7 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
 
             Value value = this.visit(eCtx);
 
-            if(!value.isBoolean())
-                System.out.println(value);
-            else
-                System.out.println(value.asBoolean()?"1":"0");
+            output.print(value);
         }
 
         return Value.VOID;
@@ -284,6 +335,50 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
         return Value.VOID;
     }
 
+    // every block on its own thread, sharing the variables; whichever fails first
+    // in the order they're written is what the statement fails with
+    @Override
+    public Value visitParallel_stat(CalculatorParser.Parallel_statContext ctx) {
+
+        ExecutorService threads = VirtualThreads.perTask();
+        List<Future<Value>> branches = new ArrayList<Future<Value>>();
+
+        try {
+            for(CalculatorParser.BlockContext block : ctx.block()) {
+                EvalVisitor branch = new EvalVisitor(memory, output, input);
+                branch.loops = loops;
+                branch.limits = limits;
+                branches.add(threads.submit(() -> branch.visit(block)));
+            }
+
+            RuntimeException failure = null;
+
+            for(Future<Value> branch : branches) {
+                try {
+                    branch.get();
+                }
+                catch(ExecutionException e) {
+                    if(failure == null) {
+                        failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                    }
+                }
+            }
+
+            if(failure != null) {
+                throw failure;
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted");
+        }
+        finally {
+            threads.shutdown();
+        }
+
+        return Value.VOID;
+    }
+
     @Override 
     public Value visitBrk(CalculatorParser.BrkContext ctx) {
         throw new RuntimeException("break");
@@ -296,6 +391,10 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
     @Override
     public Value visitWhile_stat(CalculatorParser.While_statContext ctx) {
 
+        if(loops != null && loops.run(ctx, memory, limits)) {
+            return Value.VOID;
+        }
+
         Value value = this.visit(ctx.expr());
         CalculatorParser.Stat_blockContext stb = ctx.stat_block();
 
@@ -304,6 +403,8 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
         outer:
         while(value.asBoolean()) {
 
+            backEdge();
+
             // evaluate the code block
             try{
                 for(CalculatorParser.StatContext stc : statList){
@@ -313,10 +414,12 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
                 value = this.visit(ctx.expr());
             }                
             catch(RuntimeException e){
-                if(e.getMessage().equals("break"))
+                if("break".equals(e.getMessage()))
                     break;
-                if(e.getMessage().equals("continue"))
+                if("continue".equals(e.getMessage()))
                     continue;
+                // anything else ends the loop too, rather than going round forever
+                throw e;
             }
         }
 
@@ -325,12 +428,16 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
 
     @Override
     public Value visitFor_stat(CalculatorParser.For_statContext ctx){
+        if(loops != null && loops.run(ctx, memory, limits)) {
+            return Value.VOID;
+        }
         this.visit(ctx.assignment());
         Value cond = this.visit(ctx.expr(0));
         List<CalculatorParser.StatContext> statList= ctx.stat_block().block().stat();
 
         outer:
         while(cond.asBoolean()){
+            backEdge();
             try{
             for(CalculatorParser.StatContext stc : statList){
                     Value val = this.visit(stc);
@@ -340,14 +447,14 @@ public class EvalVisitor extends CalculatorBaseVisitor<Value> {
             cond=this.visit(ctx.expr(0));
         }
         catch(RuntimeException e){
-            if(e.getMessage().equals("break"))
+            if("break".equals(e.getMessage()))
                 break outer;
-            if(e.getMessage().equals("continue"))
+            if("continue".equals(e.getMessage()))
             {
                 this.visit(ctx.expr(1));
                 continue;
             }
-                
+            throw e;
         }
     }
 
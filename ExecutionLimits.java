@@ -0,0 +1,57 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// bounds on one execution of a script: how many loop iterations it may run,
+// until when, and a switch to stop it from another thread. Evaluators count
+// the iterations (the back-edges of while and for loops) themselves and
+// report them every CHECK_INTERVAL, so a limit costs next to nothing and a
+// script goes at most that many iterations past one before it's stopped.
+// Straight-line code always ends, so only loops are counted; a read()
+// waiting for input isn't interrupted. Shared by the threads of one
+// execution, never by two executions
+public class ExecutionLimits {
+
+    public static final int CHECK_INTERVAL = 1024;
+
+    // 0: no limit
+    private final long maxOperations;
+    private final long timeoutMillis;
+    private final long deadline;
+
+    private final AtomicLong operations = new AtomicLong();
+    private volatile boolean cancelled = false;
+
+    // maxOperations: loop iterations, timeoutMillis: from now; 0 for no limit
+    public ExecutionLimits(long maxOperations, long timeoutMillis) {
+        this.maxOperations = maxOperations;
+        this.timeoutMillis = timeoutMillis;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    // stops the script at its next check, from any thread
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public long operations() {
+        return operations.get();
+    }
+
+    // counts iterations run since the last report, and throws LimitExceededException past a limit
+    public void charge(long iterations) {
+
+        long total = operations.addAndGet(iterations);
+
+        if(cancelled) {
+            throw new LimitExceededException("cancelled");
+        }
+
+        if(maxOperations > 0 && total > maxOperations) {
+            throw new LimitExceededException("more than " + maxOperations + " operations");
+        }
+
+        if(timeoutMillis > 0 && System.nanoTime() - deadline > 0) {
+            throw new LimitExceededException("ran longer than " + timeoutMillis + " ms");
+        }
+    }
+}
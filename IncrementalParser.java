@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+
+// keeps a script's text together with its top-level statements, so an edit
+// only re-parses the statements around it and reuses every other subtree
+public class IncrementalParser {
+
+    // a region that still doesn't parse after this many widenings is most
+    // likely a half-typed statement; growing it further re-parses more text
+    // each time than parsing the whole script once
+    private static final int MAX_WIDENINGS = 1;
+
+    private final StringBuilder text;
+
+    // top-level statements with their [start, end) character offsets, first
+    // line and the number of syntax errors reported inside them
+    private List<CalculatorParser.StatContext> stats = new ArrayList<CalculatorParser.StatContext>();
+    private List<int[]> spans = new ArrayList<int[]>();
+
+    private CalculatorParser.ParseContext tree;
+    private int errors;
+
+    public IncrementalParser(String text) {
+        this.text = new StringBuilder(text);
+        parseAll();
+    }
+
+    public CalculatorParser.ParseContext tree() {
+        return tree;
+    }
+
+    public String text() {
+        return text.toString();
+    }
+
+    // syntax errors in the current tree
+    public int errors() {
+        return errors;
+    }
+
+    // replaces `removed` characters at `offset` with `inserted` and returns the new tree
+    public CalculatorParser.ParseContext edit(int offset, int removed, String inserted) {
+
+        if(offset < 0 || removed < 0 || offset + removed > text.length()) {
+            throw new IndexOutOfBoundsException("edit " + offset + "+" + removed + " outside 0.." + text.length());
+        }
+
+        int oldLength = text.length();
+        int delta = inserted.length() - removed;
+        int lineDelta = newlines(inserted, 0, inserted.length()) - newlines(text, offset, offset + removed);
+
+        text.replace(offset, offset + removed, inserted);
+
+        if(stats.isEmpty()) {
+            parseAll();
+            return tree;
+        }
+
+        // the statements touching the edit, plus one on either side: an edit can
+        // join a statement to its neighbour or split one in two
+        int first = 0;
+        while(first < stats.size() - 1 && spans.get(first)[1] < offset) {
+            first++;
+        }
+        int last = first;
+        while(last < stats.size() - 1 && spans.get(last + 1)[0] <= offset + removed) {
+            last++;
+        }
+        first = Math.max(first - 1, 0);
+        last = Math.min(last + 1, stats.size() - 1);
+
+        List<CalculatorParser.StatContext> region;
+        List<int[]> regionSpans;
+        int regionErrors;
+
+        // the region parse is only trusted if it is clean and its last statement
+        // ends where the old one did; otherwise the edit may have pulled in text
+        // from outside the region (an 'if' taking the next lines as its body), so
+        // widen by one statement on either side and try again, up to MAX_WIDENINGS
+        for(int widenings = 0; ; widenings++) {
+
+            int start = first == 0 ? 0 : Math.min(spans.get(first)[0], offset);
+            int end = (last == stats.size() - 1 ? oldLength : Math.max(spans.get(last)[1], offset + removed)) + delta;
+            int line = first == 0 ? 1 : spans.get(first)[2];
+
+            if(first == 0 && last == stats.size() - 1) {
+                parseAll();
+                return tree;
+            }
+
+            // an unbalanced brace, parenthesis or quote changes how everything after it parses
+            if(!balanced(text, start, end)) {
+                parseAll();
+                return tree;
+            }
+
+            region = new ArrayList<CalculatorParser.StatContext>();
+            regionSpans = new ArrayList<int[]>();
+            regionErrors = parse(text.substring(start, end), start, line, region, regionSpans);
+
+            boolean closed = last == stats.size() - 1
+                    || (!regionSpans.isEmpty() && regionSpans.get(regionSpans.size() - 1)[1] == end);
+
+            if(regionErrors == 0 && closed) {
+                break;
+            }
+
+            if(widenings == MAX_WIDENINGS) {
+                parseAll();
+                return tree;
+            }
+
+            first = Math.max(first - 1, 0);
+            last = Math.min(last + 1, stats.size() - 1);
+        }
+
+        for(int i = first; i <= last; i++) {
+            errors -= spans.get(i)[3];
+        }
+
+        for(int i = last + 1; i < spans.size(); i++) {
+            int[] span = spans.get(i);
+            spans.set(i, new int[]{span[0] + delta, span[1] + delta, span[2] + lineDelta, span[3]});
+        }
+
+        List<CalculatorParser.StatContext> newStats = new ArrayList<CalculatorParser.StatContext>(stats.subList(0, first));
+        newStats.addAll(region);
+        newStats.addAll(stats.subList(last + 1, stats.size()));
+
+        List<int[]> newSpans = new ArrayList<int[]>(spans.subList(0, first));
+        newSpans.addAll(regionSpans);
+        newSpans.addAll(spans.subList(last + 1, spans.size()));
+
+        stats = newStats;
+        spans = newSpans;
+        errors += regionErrors;
+        tree = ParallelLoader.stitch(stats);
+
+        return tree;
+    }
+
+    private void parseAll() {
+        stats = new ArrayList<CalculatorParser.StatContext>();
+        spans = new ArrayList<int[]>();
+        errors = parse(text.toString(), 0, 1, stats, spans);
+        tree = ParallelLoader.stitch(stats);
+    }
+
+    private int parse(String source, int base, int line, List<CalculatorParser.StatContext> into, List<int[]> intoSpans) {
+
+        CalculatorLexer lexer = new CalculatorLexer(CharStreams.fromString(source));
+        lexer.setLine(line);
+        lexer.removeErrorListener(ConsoleErrorListener.INSTANCE);
+
+        CalculatorParser parser = new CalculatorParser(new CommonTokenStream(lexer));
+
+        // errors are counted, not printed: an editor's buffer is mostly half typed
+        parser.removeErrorListener(ConsoleErrorListener.INSTANCE);
+
+        // where each error happened, to charge it to a statement
+        List<Integer> errorOffsets = new ArrayList<Integer>();
+        parser.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                    int charPositionInLine, String msg, RecognitionException e) {
+                errorOffsets.add(base + ((Token) offendingSymbol).getStartIndex());
+            }
+        });
+
+        int first = intoSpans.size();
+
+        for(CalculatorParser.StatContext stat : parser.parse().block().stat()) {
+
+            int start = stat.getStart().getStartIndex();
+            // a statement the parser gave up on can end before it starts
+            int end = stat.getStop() == null ? start : Math.max(stat.getStop().getStopIndex() + 1, start);
+
+            into.add(stat);
+            intoSpans.add(new int[]{base + start, base + end, stat.getStart().getLine(), 0});
+        }
+
+        for(int errorOffset : errorOffsets) {
+            int i = intoSpans.size() - 1;
+            while(i > first && intoSpans.get(i)[0] > errorOffset) {
+                i--;
+            }
+            if(i >= first) {
+                intoSpans.get(i)[3]++;
+            }
+        }
+
+        return errorOffsets.size();
+    }
+
+    private static boolean balanced(CharSequence source, int start, int end) {
+
+        int braces = 0;
+        int parens = 0;
+        boolean inString = false;
+        boolean inComment = false;
+
+        for(int i = start; i < end; i++) {
+
+            char c = source.charAt(i);
+
+            if(c == '\n') {
+                inString = false;
+                inComment = false;
+            }
+            else if(inComment) {
+                continue;
+            }
+            else if(c == '"') {
+                inString = !inString;
+            }
+            else if(inString) {
+                continue;
+            }
+            else if(c == '#') {
+                inComment = true;
+            }
+            else if(c == '{') {
+                braces++;
+            }
+            else if(c == '}' && --braces < 0) {
+                return false;
+            }
+            else if(c == '(') {
+                parens++;
+            }
+            else if(c == ')' && --parens < 0) {
+                return false;
+            }
+        }
+
+        return braces == 0 && parens == 0 && !inString;
+    }
+
+    private static int newlines(CharSequence source, int start, int end) {
+
+        int count = 0;
+
+        for(int i = start; i < end; i++) {
+            if(source.charAt(i) == '\n') {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+
+// checks that edits give the same statements and error count as parsing the
+// edited text from scratch:
+//   java IncrementalParserTest
+public class IncrementalParserTest {
+
+    // an edit may take this many times as long as parsing the edited text
+    // from scratch; re-parsing ever wider regions took hundreds of times
+    private static final int MAX_EDIT_PARSES = 5;
+
+    private static final List<String> RULES = Arrays.asList(CalculatorParser.ruleNames);
+
+    public static void main(String[] args) {
+
+        int failures = 0;
+
+        // an 'if' inserted into a statement takes the following lines as its condition and body
+        failures += check("a = 1\nb = 2\ne(0)\nsqrt(4)\nx = 5\n", "a = 1\nb = 2".length(), 0, " if");
+        // and removing it splits them up again
+        failures += check("a = 1\nb = 2 if\ne(0)\nsqrt(4)\nx = 5\n", "a = 1\nb = 2".length(), " if".length(), "");
+        failures += check("a = 1\nb = 2\nf = 3\ng = 4\n", "a = 1\nb = ".length(), 1, "7 * a");
+        failures += check("a = 1\nb = 2\nf = 3\ng = 4\n", "a = 1\nb = 2\n".length(), 0, "while(a < 3) { a++ }\n");
+        failures += check("a = 1\nb = 2\nf = 3\ng = 4\n", "a = 1\nb = 2".length(), 0, " +");
+
+        // an edit that leaves an error in the middle of a long script: the
+        // region is widened once, then the whole script is parsed
+        String script = script(4000);
+        // warms up the parser, so the timings compare like with like
+        new IncrementalParser(script);
+        int middle = script.indexOf("x2000 = ");
+        failures += check(script, middle, 0, "* ");
+        failures += check(script, middle + "x2000 = ".length(), 0, "* ");
+
+        if(failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+
+        System.out.println("ok");
+    }
+
+    private static int check(String text, int offset, int removed, String inserted) {
+
+        IncrementalParser incremental = new IncrementalParser(text);
+        long start = System.nanoTime();
+        incremental.edit(offset, removed, inserted);
+        long time = System.nanoTime() - start;
+
+        String edited = text.substring(0, offset) + inserted + text.substring(offset + removed);
+        start = System.nanoTime();
+        new IncrementalParser(edited);
+        long full = System.nanoTime() - start;
+
+        CalculatorParser parser = new CalculatorParser(new CommonTokenStream(new CalculatorLexer(CharStreams.fromString(edited))));
+        parser.removeErrorListener(ConsoleErrorListener.INSTANCE);
+        CalculatorParser.ParseContext fresh = parser.parse();
+
+        String expected = statements(fresh) + " errors=" + parser.getNumberOfSyntaxErrors();
+        String actual = statements(incremental.tree()) + " errors=" + incremental.errors();
+
+        if(!edited.equals(incremental.text()) || !expected.equals(actual)) {
+            System.out.println("edit " + offset + "+" + removed + " '" + inserted + "' of " + text.replace("\n", "\\n"));
+            System.out.println("  expected: " + expected);
+            System.out.println("  actual:   " + actual);
+            return 1;
+        }
+
+        // with some slack for small scripts, where timings are mostly noise
+        if(time > MAX_EDIT_PARSES * full + 50000000L) {
+            System.out.println("edit " + offset + "+" + removed + " '" + inserted + "' took " + time / 1000000 + " ms, a full parse " + full / 1000000 + " ms");
+            return 1;
+        }
+
+        return 0;
+    }
+
+    private static String script(int statements) {
+
+        StringBuilder builder = new StringBuilder();
+
+        for(int i = 0; i < statements; i++) {
+            builder.append("x").append(i).append(" = ").append(i).append(" * (y + 2) - 1\n");
+        }
+
+        return builder.toString();
+    }
+
+    private static String statements(CalculatorParser.ParseContext tree) {
+
+        StringBuilder builder = new StringBuilder();
+
+        for(CalculatorParser.StatContext stat : tree.block().stat()) {
+            builder.append(stat.toStringTree(RULES)).append(' ');
+        }
+
+        return builder.toString();
+    }
+}
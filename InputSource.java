@@ -0,0 +1,12 @@
+// where read() gets its numbers
+public interface InputSource {
+
+    // the next number; EndOfInputException after the last one
+    double readDouble();
+
+    // whether readDouble() would return without waiting; a scheduled script
+    // (see Scheduler) gives up its thread instead of waiting when it's not
+    default boolean ready() {
+        return true;
+    }
+}
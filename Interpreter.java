@@ -0,0 +1,279 @@
+import java.util.Arrays;
+
+// runs a Program. All evaluation state lives in the operand stack and the
+// variable slots, so no construct costs Java stack, however deeply it nests
+public class Interpreter {
+
+    // used to compare floating point numbers, same as EvalVisitor
+    public static final double SMALL_VALUE = 0.00000000001;
+
+    // why run(quantum) returned
+    public static final int HALTED = 0;
+    public static final int YIELDED = 1;
+    public static final int BLOCKED = 2;
+
+    private final Program program;
+    private final Value[] slots;
+    private final Value[] stack;
+    private final OutputSink output;
+    private final InputSource input;
+
+    private int pc = 0;
+    private int sp = 0;
+
+    // what its loop iterations may add up to, if anything
+    private ExecutionLimits limits;
+
+    public Interpreter(Program program) {
+        this(program, BufferedOutputSink.stdout());
+    }
+
+    public Interpreter(Program program, OutputSink output) {
+        this(program, output, TextInput.stdin());
+    }
+
+    public Interpreter(Program program, OutputSink output, InputSource input) {
+        this.program = program;
+        this.slots = new Value[program.names.length];
+        this.stack = new Value[program.maxStack];
+        this.output = output;
+        this.input = input;
+    }
+
+    public Program program() {
+        return program;
+    }
+
+    // for the runs to come; null for none
+    public void limit(ExecutionLimits limits) {
+        this.limits = limits;
+    }
+
+    public void run() {
+        // with limits, a quantum at a time to check them in between
+        while(execute(limits == null ? Integer.MAX_VALUE : ExecutionLimits.CHECK_INTERVAL, false) != HALTED) {
+            // only the quantum ran out: carry on
+        }
+    }
+
+    // runs until the program ends (HALTED), until it has gone round loops
+    // quantum times (YIELDED), or until it gets to a read() its input isn't
+    // ready for (BLOCKED); the next call carries on from there
+    public int run(int quantum) {
+        return execute(quantum, true);
+    }
+
+    private int execute(int quantum, boolean cooperative) {
+
+        final int start = quantum;
+        final int[] code = program.code;
+        final Value[] constants = program.constants;
+        final Value[] slots = this.slots;
+        final Value[] stack = this.stack;
+
+        int pc = this.pc;
+        int sp = this.sp;
+
+        try {
+            while(true) {
+
+                int opcode = code[pc++];
+
+                switch (opcode) {
+                    case Program.CONST:
+                        stack[sp++] = constants[code[pc++]];
+                        break;
+                    case Program.LOAD: {
+                        int slot = code[pc++];
+                        Value value = slots[slot];
+                        if(value == null) {
+                            throw new RuntimeException("no such variable: " + program.names[slot]);
+                        }
+                        stack[sp++] = value;
+                        break;
+                    }
+                    case Program.STORE:
+                        slots[code[pc++]] = stack[--sp];
+                        break;
+                    case Program.POP:
+                        sp--;
+                        break;
+                    case Program.NEG:
+                        stack[sp - 1] = new Value(-stack[sp - 1].asDouble());
+                        break;
+                    case Program.NOT:
+                        stack[sp - 1] = new Value(!stack[sp - 1].asBoolean());
+                        break;
+                    case Program.SIN:
+                    case Program.COS:
+                    case Program.LOG:
+                    case Program.EXP:
+                    case Program.SQRT:
+                        stack[sp - 1] = function(opcode, stack[sp - 1]);
+                        break;
+                    case Program.READ:
+                        if(cooperative && !input.ready()) {
+                            // the prompt has to be out while it waits; then the READ again
+                            output.flush();
+                            pc--;
+                            return BLOCKED;
+                        }
+                        stack[sp - 1] = function(opcode, stack[sp - 1]);
+                        break;
+                    case Program.PREINC:
+                    case Program.POSTINC:
+                    case Program.PREDEC:
+                    case Program.POSTDEC:
+                        stack[sp++] = update(opcode, code[pc++]);
+                        break;
+                    case Program.PRINT:
+                        output.print(stack[--sp]);
+                        break;
+                    case Program.JUMP:
+                        pc = code[pc];
+                        break;
+                    case Program.LOOP:
+                        pc = code[pc];
+                        if(--quantum == 0) {
+                            return YIELDED;
+                        }
+                        break;
+                    case Program.JUMPF:
+                        if(stack[--sp].asBoolean()) {
+                            pc++;
+                        }
+                        else {
+                            pc = code[pc];
+                        }
+                        break;
+                    case Program.HALT:
+                        pc--;
+                        output.flush();
+                        return HALTED;
+                    default: {
+                        Value right = stack[--sp];
+                        stack[sp - 1] = binary(opcode, stack[sp - 1], right);
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            this.pc = pc;
+            this.sp = sp;
+            if(limits != null) {
+                limits.charge(start - quantum);
+            }
+        }
+    }
+
+    // back to the start, with every variable unset, to run the program again
+    public void reset() {
+        Arrays.fill(slots, null);
+        pc = 0;
+        sp = 0;
+    }
+
+    Value get(int slot) {
+        return slots[slot];
+    }
+
+    void set(int slot, Value value) {
+        slots[slot] = value;
+    }
+
+    public Value get(String name) {
+        int slot = program.slot(name);
+        return slot < 0 ? null : slots[slot];
+    }
+
+    public void set(String name, Value value) {
+
+        int slot = program.slot(name);
+
+        // a variable the program never mentions can't affect it
+        if(slot >= 0) {
+            slots[slot] = value;
+        }
+    }
+
+    static Value binary(int opcode, Value left, Value right) {
+
+        switch (opcode) {
+            case Program.ADD:
+                return left.isDouble() && right.isDouble() ?
+                        new Value(left.asDouble() + right.asDouble()) :
+                        new Value(left.asString() + right.asString());
+            case Program.SUB:
+                return new Value(left.asDouble() - right.asDouble());
+            case Program.MUL:
+                return new Value(left.asDouble() * right.asDouble());
+            case Program.DIV:
+                return new Value(left.asDouble() / right.asDouble());
+            case Program.MOD:
+                return new Value(left.asDouble() % right.asDouble());
+            case Program.POW:
+                return new Value(Math.pow(left.asDouble(), right.asDouble()));
+            case Program.LT:
+                return new Value(left.asDouble() < right.asDouble());
+            case Program.LTEQ:
+                return new Value(left.asDouble() <= right.asDouble());
+            case Program.GT:
+                return new Value(left.asDouble() > right.asDouble());
+            case Program.GTEQ:
+                return new Value(left.asDouble() >= right.asDouble());
+            case Program.EQ:
+                return left.isDouble() && right.isDouble() ?
+                        new Value(Math.abs(left.asDouble() - right.asDouble()) < SMALL_VALUE) :
+                        new Value(left.equals(right));
+            case Program.NEQ:
+                return left.isDouble() && right.isDouble() ?
+                        new Value(Math.abs(left.asDouble() - right.asDouble()) >= SMALL_VALUE) :
+                        new Value(!left.equals(right));
+            case Program.AND:
+                return new Value(left.asBoolean() && right.asBoolean());
+            case Program.OR:
+                return new Value(left.asBoolean() || right.asBoolean());
+            default:
+                throw new RuntimeException("unknown opcode: " + opcode);
+        }
+    }
+
+    private Value function(int opcode, Value value) {
+
+        switch (opcode) {
+            case Program.SIN:
+                return new Value(Math.sin(value.asDouble()));
+            case Program.COS:
+                return new Value(Math.cos(value.asDouble()));
+            case Program.LOG:
+                return new Value(Math.log(value.asDouble()));
+            case Program.EXP:
+                return new Value(Math.exp(value.asDouble()));
+            case Program.SQRT:
+                return new Value(Math.sqrt(value.asDouble()));
+            case Program.READ:
+                // the prompt has to be on screen before we wait for the answer
+                output.flush();
+                return new Value(input.readDouble());
+            default:
+                throw new RuntimeException("unknown opcode: " + opcode);
+        }
+    }
+
+    private Value update(int opcode, int slot) {
+
+        Value value = slots[slot];
+
+        if(value == null) {
+            throw new RuntimeException("no such variable: " + program.names[slot]);
+        }
+
+        double old = value.asDouble();
+        double updated = opcode == Program.PREINC || opcode == Program.POSTINC ? old + 1 : old - 1;
+
+        slots[slot] = new Value(updated);
+
+        return opcode == Program.PREINC || opcode == Program.PREDEC ? slots[slot] : value;
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// writes a compiled program into a self-contained runnable jar: the program
+// itself plus ScriptLauncher and every class it needs, found by following
+// the class references in their class files. The parser's side of the
+// interpreter never ends up in there, and ANTLR must not either
+public class JarCompiler {
+
+    // class names inside descriptors like (LValue;)V or [LValue;
+    private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w/$]+);");
+
+    public static void compile(Program program, Path jar) throws IOException {
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, ScriptLauncher.class.getName());
+
+        try(JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+
+            for(String name : runtimeClasses(ScriptLauncher.class.getName())) {
+                out.putNextEntry(new JarEntry(name + ".class"));
+                out.write(classFile(name));
+                out.closeEntry();
+            }
+
+            out.putNextEntry(new JarEntry(ScriptLauncher.PROGRAM_RESOURCE));
+            program.write(out);
+            out.closeEntry();
+        }
+    }
+
+    // the main class and every class of ours it can reach
+    static Set<String> runtimeClasses(String main) throws IOException {
+
+        Set<String> found = new LinkedHashSet<String>();
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.push(main);
+
+        while(!pending.isEmpty()) {
+
+            String name = pending.pop();
+
+            if(!found.add(name)) {
+                continue;
+            }
+
+            for(String referenced : references(classFile(name))) {
+
+                if(referenced.startsWith("org/antlr/")) {
+                    throw new IllegalStateException(name + " needs ANTLR at runtime (" + referenced + ")");
+                }
+
+                // ours are the ones in the default package; the rest comes with the JRE
+                if(referenced.indexOf('/') < 0 && !found.contains(referenced) && exists(referenced)) {
+                    pending.push(referenced);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private static boolean exists(String name) {
+        return ClassLoader.getSystemResource(name + ".class") != null;
+    }
+
+    private static byte[] classFile(String name) throws IOException {
+
+        try(InputStream in = ClassLoader.getSystemResourceAsStream(name + ".class")) {
+
+            if(in == null) {
+                throw new IOException("class file not found: " + name);
+            }
+
+            return in.readAllBytes();
+        }
+    }
+
+    // every class name mentioned in a class file's constant pool
+    private static Set<String> references(byte[] classFile) throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+
+        if(in.readInt() != 0xCAFEBABE) {
+            throw new IOException("not a class file");
+        }
+
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNames = new int[count];
+        int classCount = 0;
+
+        for(int i = 1; i < count; i++) {
+
+            int tag = in.readUnsignedByte();
+
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classNames[classCount++] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++; // takes two entries
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag: " + tag);
+            }
+        }
+
+        Set<String> names = new LinkedHashSet<String>();
+
+        for(int i = 0; i < classCount; i++) {
+            String name = utf8[classNames[i]];
+            // array classes: [LValue; and the like
+            if(name.startsWith("[")) {
+                Matcher matcher = DESCRIPTOR_CLASS.matcher(name);
+                while(matcher.find()) {
+                    names.add(matcher.group(1));
+                }
+            }
+            else {
+                names.add(name);
+            }
+        }
+
+        // field and method descriptors name classes that are never instantiated
+        // here but that the verifier may still load
+        for(String str : utf8) {
+            if(str != null && str.indexOf(';') > 0) {
+                Matcher matcher = DESCRIPTOR_CLASS.matcher(str);
+                while(matcher.find()) {
+                    names.add(matcher.group(1));
+                }
+            }
+        }
+
+        return names;
+    }
+}
@@ -0,0 +1,9 @@
+// the element-wise loops behind BatchExpression, in place over the first
+// n elements: left[i] = left[i] op right[i], values[i] = op(values[i]).
+// Opcodes are the Program ones
+public interface Kernels {
+
+    void binary(int opcode, double[] left, double[] right, int n);
+
+    void unary(int opcode, double[] values, int n);
+}
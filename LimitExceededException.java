@@ -0,0 +1,7 @@
+// a script stopped by its ExecutionLimits
+public class LimitExceededException extends RuntimeException {
+
+    public LimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,628 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+// runs counted loops on a fork-join pool when their iterations only share
+// reductions. A loop qualifies when it counts a variable up or down by one
+// to a bound the body doesn't change (a for loop, or a while loop whose
+// body ends in "i = i + 1"), and every variable the body writes is either
+// assigned afresh each iteration before it's read, or a reduction:
+// "sum = sum + e" (or -), "prod = prod * e" (or /), or a running minimum or
+// maximum "if(e < min) { min = e; }". Ranges of iterations run on copies of
+// the variables, each reduction starting from its identity, and the
+// partial results are combined in iteration order. Anything else, and any
+// print, read(), break, continue or return in the body, leaves the loop to
+// run as usual, as does a loop that fails: it's run again from the start,
+// one iteration at a time, to fail the way it would have
+public class LoopParallelizer {
+
+    // loops shorter than this aren't worth splitting
+    public static final int MIN_ITERATIONS = 2048;
+
+    // iterations per range when the result must not depend on the thread count
+    public static final int DETERMINISTIC_GRAIN = 1024;
+
+    // integers up to here count exactly in doubles, one at a time or start + k
+    private static final double EXACT = 1L << 52;
+
+    private static final int SUM = 0;
+    private static final int PRODUCT = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+
+    private static final OutputSink NO_OUTPUT = new OutputSink() {
+        @Override
+        public void print(Value value) {
+            throw new IllegalStateException("print in a parallel loop");
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    private static final InputSource NO_INPUT = () -> {
+        throw new IllegalStateException("read() in a parallel loop");
+    };
+
+    // for loops that don't qualify
+    private static final Plan SEQUENTIAL = new Plan();
+
+    private final ForkJoinPool pool;
+    private final boolean deterministic;
+
+    // each loop is analyzed once, however often it runs
+    private final Map<ParserRuleContext, Plan> plans = new ConcurrentHashMap<ParserRuleContext, Plan>();
+
+    // deterministic: split every loop the same way, so reductions come out
+    // bit for bit the same whatever the number of threads
+    public LoopParallelizer(int threads, boolean deterministic) {
+        this.pool = new ForkJoinPool(threads);
+        this.deterministic = deterministic;
+    }
+
+    // runs the loop if it can be run in parallel; false leaves it to the caller, with nothing changed
+    // limits: charged for the iterations as the ranges run them, or null
+    public boolean run(CalculatorParser.For_statContext loop, VariableStore memory, ExecutionLimits limits) {
+        return run(plans.computeIfAbsent(loop, key -> analyze(loop)), memory, limits);
+    }
+
+    public boolean run(CalculatorParser.While_statContext loop, VariableStore memory, ExecutionLimits limits) {
+        return run(plans.computeIfAbsent(loop, key -> analyze(loop)), memory, limits);
+    }
+
+    private boolean run(Plan plan, VariableStore memory, ExecutionLimits limits) {
+
+        if(plan == SEQUENTIAL) {
+            return false;
+        }
+
+        try {
+            EvalVisitor evaluator = new EvalVisitor(memory, NO_OUTPUT, NO_INPUT);
+
+            Value from = plan.start == null ? memory.get(plan.counter) : evaluator.visit(plan.start);
+            Value to = evaluator.visit(plan.bound);
+
+            if(from == null || !from.isDouble() || !to.isDouble()) {
+                return false;
+            }
+
+            double start = from.asDouble();
+            long iterations = iterations(plan, start, to.asDouble());
+
+            if(iterations < MIN_ITERATIONS) {
+                return false;
+            }
+
+            double[] initial = new double[plan.reductions.size()];
+            int r = 0;
+
+            for(String name : plan.reductions.keySet()) {
+                Value value = memory.get(name);
+                if(value == null || !value.isDouble()) {
+                    return false;
+                }
+                initial[r++] = value.asDouble();
+            }
+
+            long grain = deterministic ? DETERMINISTIC_GRAIN : Math.max(DETERMINISTIC_GRAIN / 4, iterations / (pool.getParallelism() * 8L));
+            Partial result = pool.invoke(new Range(plan, memory, limits, initial, start, 0, iterations, iterations, grain));
+
+            r = 0;
+            for(Map.Entry<String, Integer> reduction : plan.reductions.entrySet()) {
+                memory.put(reduction.getKey(), new Value(combine(reduction.getValue(), initial[r], result.values[r])));
+                r++;
+            }
+
+            for(String name : plan.privates) {
+                Value value = result.last.get(name);
+                if(value != null) {
+                    memory.put(name, value);
+                }
+            }
+
+            memory.put(plan.counter, new Value(start + iterations * plan.step));
+
+            return true;
+        }
+        catch(LimitExceededException e) {
+            // running it again wouldn't get any further
+            throw e;
+        }
+        catch(RuntimeException | StackOverflowError e) {
+            // whatever went wrong will go wrong again, in order, when it runs sequentially
+            return false;
+        }
+    }
+
+    // how often the loop runs, or -1 if it can't be told in advance
+    private static long iterations(Plan plan, double start, double bound) {
+
+        if(Math.rint(start) != start || Math.abs(start) > EXACT || Math.abs(bound) > EXACT) {
+            return -1;
+        }
+
+        double distance = plan.step > 0 ? bound - start : start - bound;
+
+        switch (plan.relation) {
+            case CalculatorParser.LT:
+            case CalculatorParser.GT:
+                return (plan.relation == CalculatorParser.LT) == (plan.step > 0) ? (long) Math.max(0, Math.ceil(distance)) : -1;
+            case CalculatorParser.LTEQ:
+            case CalculatorParser.GTEQ:
+                return (plan.relation == CalculatorParser.LTEQ) == (plan.step > 0) ? (long) Math.max(0, Math.floor(distance) + 1) : -1;
+            default:
+                return -1;
+        }
+    }
+
+    // the partial result on the left, then the one on the right, like one loop would have
+    private static double combine(int kind, double left, double right) {
+
+        switch (kind) {
+            case SUM:
+                return left + right;
+            case PRODUCT:
+                return left * right;
+            case MIN:
+                return right < left ? right : left;
+            default:
+                return right > left ? right : left;
+        }
+    }
+
+    // a range of iterations, split in halves down to the grain
+    private static class Range extends RecursiveTask<Partial> {
+
+        private final Plan plan;
+        private final VariableStore memory;
+        private final ExecutionLimits limits;
+        private final double[] initial;
+        private final double start;
+        private final long from;
+        private final long to;
+        private final long iterations;
+        private final long grain;
+
+        Range(Plan plan, VariableStore memory, ExecutionLimits limits, double[] initial, double start, long from, long to, long iterations, long grain) {
+            this.plan = plan;
+            this.memory = memory;
+            this.limits = limits;
+            this.initial = initial;
+            this.start = start;
+            this.from = from;
+            this.to = to;
+            this.iterations = iterations;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Partial compute() {
+
+            if(to - from <= grain) {
+                return run();
+            }
+
+            long middle = from + (to - from) / 2;
+            Range left = new Range(plan, memory, limits, initial, start, from, middle, iterations, grain);
+            left.fork();
+            Partial right = new Range(plan, memory, limits, initial, start, middle, to, iterations, grain).compute();
+            Partial partial = left.join();
+
+            int r = 0;
+            for(int kind : plan.reductions.values()) {
+                partial.values[r] = combine(kind, partial.values[r], right.values[r]);
+                r++;
+            }
+
+            partial.last = right.last;
+
+            return partial;
+        }
+
+        private Partial run() {
+
+            VariableStore copy = memory.copy();
+            int r = 0;
+
+            for(Map.Entry<String, Integer> reduction : plan.reductions.entrySet()) {
+                // min and max start from where the loop does, which changes nothing when combined
+                int kind = reduction.getValue();
+                copy.put(reduction.getKey(), new Value(kind == SUM ? 0.0 : kind == PRODUCT ? 1.0 : initial[r]));
+                r++;
+            }
+
+            EvalVisitor evaluator = new EvalVisitor(copy, NO_OUTPUT, NO_INPUT);
+            evaluator.limit(limits);
+
+            for(long k = from; k < to; k++) {
+                copy.put(plan.counter, new Value(start + k * plan.step));
+                for(CalculatorParser.StatContext statement : plan.body) {
+                    evaluator.visit(statement);
+                }
+                if(limits != null && (k - from) % ExecutionLimits.CHECK_INTERVAL == ExecutionLimits.CHECK_INTERVAL - 1) {
+                    limits.charge(ExecutionLimits.CHECK_INTERVAL);
+                }
+            }
+
+            Partial partial = new Partial();
+            partial.values = new double[plan.reductions.size()];
+            r = 0;
+
+            for(String name : plan.reductions.keySet()) {
+                Value value = copy.get(name);
+                if(!value.isDouble()) {
+                    throw new IllegalStateException("not a number: " + name);
+                }
+                partial.values[r++] = value.asDouble();
+            }
+
+            // only the last iteration's temporaries outlive the loop
+            partial.last = to == iterations ? copy : null;
+
+            return partial;
+        }
+    }
+
+    private static class Partial {
+        double[] values;
+        VariableStore last;
+    }
+
+    // what a qualifying loop looks like
+    private static class Plan {
+
+        String counter;
+        // null: the counter's value when the loop starts (a while loop)
+        CalculatorParser.ExprContext start;
+        int step;
+        // counter <relation> bound, with the counter on the left
+        int relation;
+        CalculatorParser.ExprContext bound;
+        List<CalculatorParser.StatContext> body;
+
+        // by name, in the order of their partial results
+        final Map<String, Integer> reductions = new LinkedHashMap<String, Integer>();
+        final List<String> privates = new ArrayList<String>();
+    }
+
+    private static Plan analyze(CalculatorParser.For_statContext loop) {
+
+        Plan plan = new Plan();
+        plan.counter = loop.assignment().ID().getText();
+        plan.start = loop.assignment().expr();
+        plan.body = statements(loop.stat_block());
+
+        // i++, ++i, i-- or --i
+        CalculatorParser.ExprContext update = loop.expr(1);
+
+        if(update instanceof CalculatorParser.PostIncExprContext || update instanceof CalculatorParser.PreIncExprContext) {
+            plan.step = 1;
+        }
+        else if(update instanceof CalculatorParser.PostDecExprContext || update instanceof CalculatorParser.PreDecExprContext) {
+            plan.step = -1;
+        }
+        else {
+            return SEQUENTIAL;
+        }
+
+        if(!update.getChild(update.getChildCount() - 1).getText().equals(plan.counter) &&
+                !update.getChild(0).getText().equals(plan.counter)) {
+            return SEQUENTIAL;
+        }
+
+        if(!pure(plan.start) || !condition(plan, loop.expr(0))) {
+            return SEQUENTIAL;
+        }
+
+        return body(plan);
+    }
+
+    private static Plan analyze(CalculatorParser.While_statContext loop) {
+
+        Plan plan = new Plan();
+        List<CalculatorParser.StatContext> statements = statements(loop.stat_block());
+
+        CalculatorParser.ExprContext condition = unwrap(loop.expr());
+
+        if(statements.isEmpty() || !(condition instanceof CalculatorParser.RelationalExprContext)) {
+            return SEQUENTIAL;
+        }
+
+        // the counter is the variable compared; the body has to end in "counter = counter +/- 1"
+        CalculatorParser.RelationalExprContext comparison = (CalculatorParser.RelationalExprContext) condition;
+        String counter = variable(comparison.expr(0)) != null ? variable(comparison.expr(0)) : variable(comparison.expr(1));
+        CalculatorParser.AssignmentContext last = statements.get(statements.size() - 1).assignment();
+
+        if(counter == null || last == null || !last.ID().getText().equals(counter) ||
+                !(last.expr() instanceof CalculatorParser.AdditiveExprContext)) {
+            return SEQUENTIAL;
+        }
+
+        CalculatorParser.AdditiveExprContext increment = (CalculatorParser.AdditiveExprContext) last.expr();
+
+        if(!counter.equals(variable(increment.expr(0))) || !increment.expr(1).getText().equals("1")) {
+            return SEQUENTIAL;
+        }
+
+        plan.counter = counter;
+        plan.step = increment.op.getType() == CalculatorParser.PLUS ? 1 : -1;
+        plan.body = statements.subList(0, statements.size() - 1);
+
+        if(!condition(plan, comparison)) {
+            return SEQUENTIAL;
+        }
+
+        return body(plan);
+    }
+
+    // "counter < bound" or the other way round, where the bound doesn't involve the counter
+    private static boolean condition(Plan plan, CalculatorParser.ExprContext condition) {
+
+        condition = unwrap(condition);
+
+        if(!(condition instanceof CalculatorParser.RelationalExprContext)) {
+            return false;
+        }
+
+        CalculatorParser.RelationalExprContext comparison = (CalculatorParser.RelationalExprContext) condition;
+        int relation = comparison.op.getType();
+
+        if(plan.counter.equals(variable(comparison.expr(0)))) {
+            plan.bound = comparison.expr(1);
+            plan.relation = relation;
+        }
+        else if(plan.counter.equals(variable(comparison.expr(1)))) {
+            plan.bound = comparison.expr(0);
+            plan.relation = relation == CalculatorParser.LT ? CalculatorParser.GT :
+                    relation == CalculatorParser.GT ? CalculatorParser.LT :
+                    relation == CalculatorParser.LTEQ ? CalculatorParser.GTEQ : CalculatorParser.LTEQ;
+        }
+        else {
+            return false;
+        }
+
+        return pure(plan.bound) && !new Access(plan.bound).reads.containsKey(plan.counter);
+    }
+
+    // sorts every variable the body writes into reductions and per-iteration temporaries
+    private static Plan body(Plan plan) {
+
+        Access access = new Access(plan.body);
+
+        if(!access.allowed || access.writes.containsKey(plan.counter)) {
+            return SEQUENTIAL;
+        }
+
+        // the bound is evaluated once, so the body mustn't change it
+        for(String name : new Access(plan.bound).reads.keySet()) {
+            if(access.writes.containsKey(name)) {
+                return SEQUENTIAL;
+            }
+        }
+
+        for(Map.Entry<String, List<ParseTree>> written : access.writes.entrySet()) {
+
+            String name = written.getKey();
+            List<ParseTree> reads = access.reads.getOrDefault(name, Collections.<ParseTree>emptyList());
+            int kind = reduction(name, written.getValue(), reads);
+
+            if(kind >= 0) {
+                plan.reductions.put(name, kind);
+            }
+            else if(assignedFirst(name, plan.body)) {
+                plan.privates.add(name);
+            }
+            else {
+                return SEQUENTIAL;
+            }
+        }
+
+        return plan;
+    }
+
+    // SUM, PRODUCT, MIN or MAX if every write and read of the variable is part of one kind of reduction, -1 if not
+    private static int reduction(String name, List<ParseTree> writes, List<ParseTree> reads) {
+
+        int kind = -1;
+        List<ParseTree> expected = new ArrayList<ParseTree>();
+
+        for(ParseTree write : writes) {
+
+            if(!(write instanceof CalculatorParser.AssignmentContext)) {
+                return -1;
+            }
+
+            CalculatorParser.ExprContext value = ((CalculatorParser.AssignmentContext) write).expr();
+            int found = -1;
+
+            if(value instanceof CalculatorParser.AdditiveExprContext || value instanceof CalculatorParser.MultiplicationExprContext) {
+
+                int op = value instanceof CalculatorParser.AdditiveExprContext ?
+                        ((CalculatorParser.AdditiveExprContext) value).op.getType() :
+                        ((CalculatorParser.MultiplicationExprContext) value).op.getType();
+                CalculatorParser.ExprContext left = (CalculatorParser.ExprContext) value.getChild(0);
+                CalculatorParser.ExprContext right = (CalculatorParser.ExprContext) value.getChild(2);
+                boolean commutes = op == CalculatorParser.PLUS || op == CalculatorParser.MULT;
+
+                if(name.equals(variable(left))) {
+                    expected.add(left.getChild(0));
+                }
+                else if(commutes && name.equals(variable(right))) {
+                    expected.add(right.getChild(0));
+                }
+                else {
+                    return -1;
+                }
+
+                found = op == CalculatorParser.PLUS || op == CalculatorParser.MINUS ? SUM :
+                        op == CalculatorParser.MULT || op == CalculatorParser.DIV ? PRODUCT : -1;
+            }
+            else {
+                // if(e < name) { name = e; } and the like: the assignment is all the if does
+                ParseTree parent = write.getParent().getParent();
+                if(parent instanceof CalculatorParser.BlockContext && ((CalculatorParser.BlockContext) parent).stat().size() == 1) {
+                    parent = parent.getParent();
+                }
+                ParseTree block = parent.getParent();
+                ParseTree branch = block == null ? null : block.getParent();
+
+                if(!(block instanceof CalculatorParser.Condition_blockContext) || !(branch instanceof CalculatorParser.If_statContext) ||
+                        ((CalculatorParser.If_statContext) branch).condition_block().size() != 1 ||
+                        ((CalculatorParser.If_statContext) branch).stat_block() != null ||
+                        !(unwrap(((CalculatorParser.Condition_blockContext) block).expr()) instanceof CalculatorParser.RelationalExprContext)) {
+                    return -1;
+                }
+
+                CalculatorParser.RelationalExprContext comparison =
+                        (CalculatorParser.RelationalExprContext) unwrap(((CalculatorParser.Condition_blockContext) block).expr());
+                int op = comparison.op.getType();
+                boolean less = op == CalculatorParser.LT || op == CalculatorParser.LTEQ;
+
+                if(name.equals(variable(comparison.expr(1))) && comparison.expr(0).getText().equals(value.getText())) {
+                    expected.add(comparison.expr(1).getChild(0));
+                    found = less ? MIN : MAX;
+                }
+                else if(name.equals(variable(comparison.expr(0))) && comparison.expr(1).getText().equals(value.getText())) {
+                    expected.add(comparison.expr(0).getChild(0));
+                    found = less ? MAX : MIN;
+                }
+                else {
+                    return -1;
+                }
+            }
+
+            if(found < 0 || (kind >= 0 && kind != found)) {
+                return -1;
+            }
+
+            kind = found;
+        }
+
+        // and it's read nowhere else, not even in what's added to it
+        return reads.size() == expected.size() && expected.containsAll(reads) ? kind : -1;
+    }
+
+    // whether the first statement that mentions the variable sets it without reading it
+    private static boolean assignedFirst(String name, List<CalculatorParser.StatContext> body) {
+
+        for(CalculatorParser.StatContext statement : body) {
+
+            Access access = new Access(statement);
+
+            if(!access.reads.containsKey(name) && !access.writes.containsKey(name)) {
+                continue;
+            }
+
+            CalculatorParser.AssignmentContext assignment = statement.assignment() != null ? statement.assignment() :
+                    statement.for_stat() != null ? statement.for_stat().assignment() : null;
+
+            return assignment != null && assignment.ID().getText().equals(name) &&
+                    !new Access(assignment.expr()).reads.containsKey(name);
+        }
+
+        return false;
+    }
+
+    private static boolean pure(ParseTree expression) {
+        Access access = new Access(expression);
+        return access.allowed && access.writes.isEmpty();
+    }
+
+    // the variable an expression is nothing but, or null
+    private static String variable(CalculatorParser.ExprContext expression) {
+
+        if(expression instanceof CalculatorParser.AtomExprContext &&
+                ((CalculatorParser.AtomExprContext) expression).atom() instanceof CalculatorParser.IdAtomContext) {
+            return expression.getText();
+        }
+
+        return null;
+    }
+
+    // without the parentheses "if(...)" and "while(...)" put around a condition
+    private static CalculatorParser.ExprContext unwrap(CalculatorParser.ExprContext expression) {
+
+        while(expression instanceof CalculatorParser.AtomExprContext &&
+                ((CalculatorParser.AtomExprContext) expression).atom() instanceof CalculatorParser.ParExprContext) {
+            expression = ((CalculatorParser.ParExprContext) ((CalculatorParser.AtomExprContext) expression).atom()).expr();
+        }
+
+        return expression;
+    }
+
+    private static List<CalculatorParser.StatContext> statements(CalculatorParser.Stat_blockContext block) {
+        return block.block() != null ? block.block().stat() : Collections.singletonList(block.stat());
+    }
+
+    // where variables are read and written, and whether there's anything that rules out running in parallel
+    private static class Access {
+
+        final Map<String, List<ParseTree>> reads = new HashMap<String, List<ParseTree>>();
+        final Map<String, List<ParseTree>> writes = new LinkedHashMap<String, List<ParseTree>>();
+        boolean allowed = true;
+
+        Access(List<? extends ParseTree> trees) {
+            for(ParseTree tree : trees) {
+                add(tree);
+            }
+        }
+
+        Access(ParseTree tree) {
+            add(tree);
+        }
+
+        private void add(ParseTree tree) {
+
+            Deque<ParseTree> pending = new ArrayDeque<ParseTree>();
+            pending.push(tree);
+
+            while(!pending.isEmpty()) {
+
+                ParseTree node = pending.pop();
+
+                // a parallel statement in there would race with the ranges' own threads
+                if(node instanceof CalculatorParser.PrintContext || node instanceof CalculatorParser.BrkContext ||
+                        node instanceof CalculatorParser.Parallel_statContext ||
+                        node instanceof CalculatorParser.ContContext || node instanceof CalculatorParser.RetContext) {
+                    allowed = false;
+                }
+                else if(node instanceof CalculatorParser.LibFuncExprContext &&
+                        ((CalculatorParser.LibFuncExprContext) node).op.getType() == CalculatorParser.READ) {
+                    allowed = false;
+                }
+                else if(node instanceof CalculatorParser.AssignmentContext) {
+                    note(writes, ((CalculatorParser.AssignmentContext) node).ID().getText(), node);
+                }
+                else if(node instanceof CalculatorParser.IdAtomContext) {
+                    note(reads, node.getText(), node);
+                }
+                else if(node instanceof CalculatorParser.PreIncExprContext || node instanceof CalculatorParser.PostIncExprContext ||
+                        node instanceof CalculatorParser.PreDecExprContext || node instanceof CalculatorParser.PostDecExprContext) {
+                    String name = ((ParserRuleContext) node).getToken(CalculatorParser.ID, 0).getText();
+                    note(reads, name, node);
+                    note(writes, name, node);
+                }
+
+                for(int i = node.getChildCount() - 1; i >= 0; i--) {
+                    pending.push(node.getChild(i));
+                }
+            }
+        }
+
+        private static void note(Map<String, List<ParseTree>> map, String name, ParseTree node) {
+            map.computeIfAbsent(name, key -> new ArrayList<ParseTree>()).add(node);
+        }
+    }
+}
@@ -1,23 +1,461 @@
-
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
 import java.lang.Exception;
-import org.antlr.v4.runtime.ANTLRFileStream;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import org.antlr.v4.runtime.CommonTokenFactory;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 public class Main {
 
+    // for parsing deeply nested expressions (ANTLR descends once per level of
+    // parentheses or right-associative '^'); long left-associative chains like
+    // 1+1+1+... are parsed in a loop and don't need it
+    private static final long DEEP_STACK_SIZE = 1L << 30;
+
+    // how scripts are parsed
+    private static boolean parallelParse = false;
+    private static boolean terminators = false;
+
     public static void main(String[] args) throws Exception {
 
-        if (args.length == 0) {
-            args = new String[]{"src/main/mu/test.txt"};
+        if(args.length > 0 && args[0].equals("compile")) {
+            compile(args);
+            return;
         }
 
-        System.out.println("parsing: " + args[0]);
+        if(args.length > 0 && args[0].equals("batch")) {
+            batch(args);
+            return;
+        }
 
-        CalculatorLexer lexer = new CalculatorLexer(new ANTLRFileStream(args[0]));
-        CalculatorParser parser = new CalculatorParser(new CommonTokenStream(lexer));
-        ParseTree tree = parser.parse();
-        EvalVisitor visitor = new EvalVisitor();
+        boolean stream = false;
+        boolean iterative = false;
+        boolean profile = false;
+        boolean parallelStatements = false;
+        boolean parallelLoops = false;
+        boolean deterministic = false;
+        String cache = null;
+        String outputFile = null;
+        String inputFile = null;
+        boolean binaryInput = false;
+        boolean prefetch = false;
+        boolean binaryOutput = false;
+        String serve = null;
+        long maxOperations = 0;
+        long timeout = 0;
+        String connect = null;
+        String map = null;
+        String[] select = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int workers = 0;
+        boolean tsv = false;
+        String file = null;
+
+        for(int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if(arg.equals("-stream")) {
+                // parse and evaluate one statement at a time, "-" reads stdin
+                stream = true;
+            }
+            else if(arg.equals("-parallel-parse")) {
+                // split large scripts and parse the pieces on all cores
+                parallelParse = true;
+            }
+            else if(arg.equals("-terminators")) {
+                // statements end at newlines and ';' (see TerminatorFilter)
+                terminators = true;
+            }
+            else if(arg.equals("-parallel-statements")) {
+                // run independent top-level statements at the same time, on -threads threads
+                parallelStatements = true;
+            }
+            else if(arg.equals("-parallel-loops")) {
+                // split counted loops that only sum, multiply or take minima over -threads threads
+                parallelLoops = true;
+            }
+            else if(arg.equals("-deterministic")) {
+                // ... the same way whatever the number of threads, for reproducible sums
+                deterministic = true;
+            }
+            else if(arg.equals("-iterative")) {
+                // compile to a Program and run it on the stack machine
+                iterative = true;
+            }
+            else if(arg.equals("-profile")) {
+                // report the parser's prediction work per grammar decision instead of running
+                profile = true;
+            }
+            else if(arg.equals("-cache") && i + 1 < args.length) {
+                // keep compiled programs in the given directory and run them on the stack machine
+                cache = args[++i];
+                iterative = true;
+            }
+            else if(arg.equals("-output") && i + 1 < args.length) {
+                // write what the script prints to the given file instead of stdout
+                outputFile = args[++i];
+            }
+            else if(arg.equals("-serve") && i + 1 < args.length) {
+                // evaluate scripts sent to this address (host:port, :port or a socket path)
+                serve = args[++i];
+            }
+            else if(arg.equals("-max-ops") && i + 1 < args.length) {
+                // stop the script after this many loop iterations (per request with -serve, per row with -map)
+                maxOperations = Long.parseLong(args[++i]);
+            }
+            else if(arg.equals("-timeout") && i + 1 < args.length) {
+                // ... or after this many milliseconds
+                timeout = Long.parseLong(args[++i]);
+            }
+            else if(arg.equals("-connect") && i + 1 < args.length) {
+                // have the server at this address run the script
+                connect = args[++i];
+            }
+            else if(arg.equals("-binary-output")) {
+                // print values in BinaryOutputSink's framed format instead of as text
+                binaryOutput = true;
+            }
+            else if(arg.equals("-input") && i + 1 < args.length) {
+                // read() numbers from the given file instead of stdin
+                inputFile = args[++i];
+            }
+            else if(arg.equals("-binary-input") && i + 1 < args.length) {
+                // read() little-endian doubles from the given file
+                inputFile = args[++i];
+                binaryInput = true;
+            }
+            else if(arg.equals("-map") && i + 1 < args.length) {
+                // run the script once per row of the given CSV or TSV file ("-" reads stdin)
+                map = args[++i];
+            }
+            else if(arg.equals("-select") && i + 1 < args.length) {
+                // the variables written per row in map mode, comma separated
+                select = args[++i].split(",");
+            }
+            else if(arg.equals("-tsv")) {
+                // map mode: the rows are tab separated, whatever the file is called
+                tsv = true;
+            }
+            else if(arg.equals("-threads") && i + 1 < args.length) {
+                // map mode: how many threads evaluate rows; -parallel-statements: how many run statements
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if(arg.equals("-workers") && i + 1 < args.length) {
+                // map mode: spread the rows over this many worker processes
+                workers = Integer.parseInt(args[++i]);
+            }
+            else if(arg.equals("-prefetch")) {
+                // decode read() input ahead on a separate thread
+                prefetch = true;
+            }
+            else {
+                file = arg;
+            }
+        }
+
+        if(serve != null) {
+            new CalculatorServer(maxOperations, timeout).serve(CalculatorServer.address(serve));
+            return;
+        }
+
+        if(connect != null) {
+            try(SocketChannel channel = SocketChannel.open(CalculatorServer.address(connect))) {
+                System.out.print(CalculatorServer.request(channel, new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8)));
+            }
+            return;
+        }
+
+        if (file == null) {
+            file = stream ? "-" : "src/main/mu/test.txt";
+        }
+
+        if(binaryOutput && map != null) {
+            throw new RuntimeException("map mode writes CSV, -binary-output doesn't apply");
+        }
+
+        BufferedOutputSink output = binaryOutput ?
+                (outputFile == null ? BinaryOutputSink.stdout() : BinaryOutputSink.toFile(Paths.get(outputFile))) :
+                (outputFile == null ? BufferedOutputSink.stdout() : BufferedOutputSink.toFile(Paths.get(outputFile)));
+
+        // nothing but frames may go to a binary stdout
+        PrintStream log = binaryOutput && outputFile == null ? System.err : System.out;
+
+        InputSource input = inputFile == null ? TextInput.stdin() :
+                binaryInput ? MappedDoubleInput.open(Paths.get(inputFile)) :
+                TextInput.open(inputFile);
+
+        if(prefetch) {
+            input = new PrefetchingInput(input);
+        }
+
+        try {
+            if(map != null) {
+                char separator = tsv || map.endsWith(".tsv") ? '\t' : ',';
+                map(file, map, separator, select, threads, workers, maxOperations, timeout, output);
+            }
+            else {
+                LoopParallelizer loops = parallelLoops ? new LoopParallelizer(threads, deterministic) : null;
+                run(file, stream, profile, iterative, cache, parallelStatements ? threads : 0, loops, maxOperations, timeout, output, input, log);
+            }
+        }
+        finally {
+            output.flush();
+        }
+    }
+
+    private static void run(String file, boolean stream, boolean profile, boolean iterative, String cache, int statementThreads, LoopParallelizer loops, long maxOperations, long timeout, OutputSink output, InputSource input, PrintStream log) throws Exception {
+
+        if(stream) {
+            boolean interactive = file.equals("-");
+            InputStream in = interactive ? System.in : new FileInputStream(file);
+            EvalVisitor visitor = new EvalVisitor(output, input);
+            visitor.limit(limits(maxOperations, timeout));
+            new StreamingEvaluator(visitor, interactive).run(in);
+            return;
+        }
+
+        log.println("parsing: " + file);
+
+        if(profile) {
+            ParseProfiler.report(file, terminators, log);
+            return;
+        }
+
+        if(iterative) {
+            String source = file;
+            Callable<ProgramCache.Compiled> compiler = () -> onDeepStack(() -> {
+                ParseTree tree = parse(source);
+                return new ProgramCache.Compiled(ProgramCompiler.compile(tree), syntaxErrors(tree));
+            });
+            Program program = cache == null ?
+                    compiler.call().program :
+                    new ProgramCache(Paths.get(cache)).load(file, terminators ? "terminators" : "default", compiler);
+            Interpreter interpreter = new Interpreter(program, output, input);
+            interpreter.limit(limits(maxOperations, timeout));
+            interpreter.run();
+            return;
+        }
+
+        ParseTree tree = parse(file);
+        // made once parsed, so parsing doesn't count against the timeout
+        ExecutionLimits limits = limits(maxOperations, timeout);
+
+        if(statementThreads > 0) {
+            ParallelEvaluator evaluator = new ParallelEvaluator(output, input, statementThreads, limits);
+            evaluator.parallelizeLoops(loops);
+            evaluator.run((CalculatorParser.ParseContext) tree);
+            return;
+        }
+
+        EvalVisitor visitor = new EvalVisitor(output, input);
+        visitor.parallelizeLoops(loops);
+        visitor.limit(limits);
         visitor.visit(tree);
     }
-}
\ No newline at end of file
+
+    // the rows go to the output, with the input's separator, and nothing else does
+    // maxOperations and timeout apply to each row
+    private static void map(String file, String data, char separator, String[] select, int threads, int workers, long maxOperations, long timeout, BufferedOutputSink output) throws Exception {
+
+        Reader in = data.equals("-") ?
+                new InputStreamReader(System.in, StandardCharsets.UTF_8) :
+                Files.newBufferedReader(Paths.get(data), StandardCharsets.UTF_8);
+
+        try {
+            if(workers > 0) {
+                List<String> options = new ArrayList<String>();
+                if(select != null) {
+                    options.add("-select");
+                    options.add(String.join(",", select));
+                }
+                if(terminators) {
+                    options.add("-terminators");
+                }
+                if(maxOperations > 0) {
+                    options.add("-max-ops");
+                    options.add(String.valueOf(maxOperations));
+                }
+                if(timeout > 0) {
+                    options.add("-timeout");
+                    options.add(String.valueOf(timeout));
+                }
+                // the workers read stdin, so they can't tell from a file name
+                if(separator == '\t') {
+                    options.add("-tsv");
+                }
+                new Coordinator(file, options, workers).run(in, output);
+                return;
+            }
+
+            Program program = onDeepStack(() -> ProgramCompiler.compile(parse(file)));
+
+            new CsvMapper(program, separator, select, threads, maxOperations, timeout).run(in, output);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static ExecutionLimits limits(long maxOperations, long timeout) {
+        return maxOperations > 0 || timeout > 0 ? new ExecutionLimits(maxOperations, timeout) : null;
+    }
+
+    // Main compile script [-o script.jar]: a jar that runs the script with
+    // just "java -jar", without ANTLR or this compiler on the classpath
+    private static void compile(String[] args) throws Exception {
+
+        String file = null;
+        String jar = null;
+
+        for(int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if(arg.equals("-o") && i + 1 < args.length) {
+                jar = args[++i];
+            }
+            else if(arg.equals("-terminators")) {
+                terminators = true;
+            }
+            else {
+                file = arg;
+            }
+        }
+
+        if(file == null) {
+            throw new RuntimeException("usage: Main compile script [-terminators] [-o script.jar]");
+        }
+
+        if(jar == null) {
+            jar = file.replaceFirst("\\.[^./\\\\]*$", "") + ".jar";
+        }
+
+        String source = file;
+        Program program = onDeepStack(() -> ProgramCompiler.compile(parse(source)));
+        JarCompiler.compile(program, Paths.get(jar));
+
+        System.out.println("compiled: " + file + " -> " + jar);
+    }
+
+    // Main batch [-threads N] [-quantum Q] [-max-ops N] [-timeout MS] [-terminators] script|directory...:
+    // runs them all in this one JVM, their output in the order given. With
+    // -quantum they all run at once, taking turns of Q loop iterations on the
+    // threads, and what each cost goes to stderr
+    private static void batch(String[] args) throws Exception {
+
+        List<String> paths = new ArrayList<String>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int quantum = 0;
+        long maxOperations = 0;
+        long timeout = 0;
+
+        for(int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if(arg.equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if(arg.equals("-quantum") && i + 1 < args.length) {
+                quantum = Integer.parseInt(args[++i]);
+            }
+            else if(arg.equals("-max-ops") && i + 1 < args.length) {
+                maxOperations = Long.parseLong(args[++i]);
+            }
+            else if(arg.equals("-timeout") && i + 1 < args.length) {
+                timeout = Long.parseLong(args[++i]);
+            }
+            else if(arg.equals("-terminators")) {
+                terminators = true;
+            }
+            else {
+                paths.add(arg);
+            }
+        }
+
+        if(paths.isEmpty()) {
+            throw new RuntimeException("usage: Main batch [-threads N] [-quantum Q] [-max-ops N] [-timeout MS] [-terminators] script|directory...");
+        }
+
+        List<String> scripts = BatchRunner.scripts(paths);
+        Scheduler scheduler = quantum > 0 ? new Scheduler(threads, quantum) : null;
+        int failed = new BatchRunner(file -> ProgramCompiler.compile(parse(file)), threads, scheduler, maxOperations, timeout).run(scripts, BufferedOutputSink.stdout());
+
+        if(failed > 0) {
+            throw new RuntimeException(failed + " of " + scripts.size() + " scripts failed");
+        }
+    }
+
+    private static ParseTree parse(String file) throws Exception {
+
+        if(terminators) {
+            return TerminatorFilter.parser(MappedCharStream.open(file)).parse();
+        }
+
+        if(parallelParse) {
+            return new ParallelLoader().load(file);
+        }
+
+        CalculatorLexer lexer = new CalculatorLexer(MappedCharStream.open(file));
+        // tokens copy their text while the stream is right behind them, so the
+        // tree never has to decode it out of the mapping again
+        lexer.setTokenFactory(new CommonTokenFactory(true));
+        CalculatorParser parser = new CalculatorParser(new CommonTokenStream(lexer));
+        return parser.parse();
+    }
+
+    // the parser leaves an error node, or the exception in the rule's context,
+    // wherever it recovered from a syntax error
+    private static int syntaxErrors(ParseTree tree) {
+
+        if(tree instanceof ErrorNode) {
+            return 1;
+        }
+
+        int errors = tree instanceof ParserRuleContext && ((ParserRuleContext) tree).exception != null ? 1 : 0;
+
+        for(int i = 0; i < tree.getChildCount(); i++) {
+            errors += syntaxErrors(tree.getChild(i));
+        }
+
+        return errors;
+    }
+
+    private static <T> T onDeepStack(Callable<T> task) throws Exception {
+
+        Object[] result = new Object[1];
+        Throwable[] failure = new Throwable[1];
+
+        // everything the task throws is handed to the caller, a StackOverflowError
+        // or OutOfMemoryError included, rather than dying with the thread
+        Thread thread = new Thread(null, () -> {
+            try {
+                result[0] = task.call();
+            }
+            catch(Throwable e) {
+                failure[0] = e;
+            }
+        }, "deep-parse", DEEP_STACK_SIZE);
+
+        thread.start();
+        thread.join();
+
+        if(failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        }
+        if(failure[0] != null) {
+            throw (Exception) failure[0];
+        }
+
+        @SuppressWarnings("unchecked")
+        T value = (T) result[0];
+        return value;
+    }
+}
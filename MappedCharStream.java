@@ -0,0 +1,267 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+// a CharStream over the raw (UTF-8) bytes of a memory mapped file: nothing is
+// copied up front, code points are decoded only when the lexer looks at them
+public class MappedCharStream implements CharStream {
+
+    // every CHECKPOINT_INTERVAL'th code point gets its byte offset remembered,
+    // so seeking back and getText() never have to scan from the start
+    private static final int CHECKPOINT_INTERVAL = 256;
+
+    private final ByteBuffer bytes;
+    private final int limit;
+    private final String name;
+
+    // current position as code point index and byte offset
+    private int index = 0;
+    private int offset = 0;
+
+    private int[] checkpoints = new int[]{0};
+    private int checkpointCount = 1;
+
+    // number of code points, counted on first use
+    private int size = -1;
+
+    public MappedCharStream(ByteBuffer bytes, String name) {
+        this.bytes = bytes;
+        this.limit = bytes.limit();
+        this.name = name;
+    }
+
+    public static MappedCharStream open(String fileName) throws IOException {
+
+        try(FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+            long length = channel.size();
+
+            if(length > Integer.MAX_VALUE) {
+                throw new IOException("too large to map: " + fileName + " (" + length + " bytes)");
+            }
+
+            // the mapping stays valid after the channel is closed
+            return new MappedCharStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, length), fileName);
+        }
+    }
+
+    @Override
+    public void consume() {
+
+        if(offset >= limit) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+
+        offset = next(offset);
+        index++;
+
+        if(index == checkpointCount * CHECKPOINT_INTERVAL) {
+            if(checkpointCount == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+            }
+            checkpoints[checkpointCount++] = offset;
+        }
+    }
+
+    @Override
+    public int LA(int i) {
+
+        if(i == 0) {
+            return 0; // undefined
+        }
+
+        int off = offset;
+
+        if(i > 0) {
+            for(int n = 1; n < i && off < limit; n++) {
+                off = next(off);
+            }
+            return off < limit ? decode(off) : IntStream.EOF;
+        }
+
+        for(int n = 0; n < -i; n++) {
+            if(off == 0) {
+                return IntStream.EOF;
+            }
+            off = previous(off);
+        }
+
+        return decode(off);
+    }
+
+    @Override
+    public int mark() {
+        // the whole file is always addressable
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public void seek(int target) {
+
+        if(target <= index) {
+            offset = locate(target);
+            index = target;
+            return;
+        }
+
+        // moving forward goes through consume() so checkpoints are recorded
+        while(index < target && offset < limit) {
+            consume();
+        }
+    }
+
+    @Override
+    public int size() {
+
+        if(size < 0) {
+            // stepped the way consume() steps, so malformed bytes count the same
+            int count = 0;
+            for(int off = 0; off < limit; off = next(off)) {
+                count++;
+            }
+            size = count;
+        }
+
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return name;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+
+        int start = Math.max(interval.a, 0);
+
+        if(interval.b < start) {
+            return "";
+        }
+
+        StringBuilder builder = new StringBuilder(interval.b - start + 1);
+
+        for(int i = start, off = locate(start); i <= interval.b && off < limit; i++, off = next(off)) {
+            builder.appendCodePoint(decode(off));
+        }
+
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size() - 1));
+    }
+
+    // byte offset of the code point at target, leaving the current position alone
+    private int locate(int target) {
+
+        int k = Math.min(target / CHECKPOINT_INTERVAL, checkpointCount - 1);
+        int i = k * CHECKPOINT_INTERVAL;
+        int off = checkpoints[k];
+
+        if(index <= target && index > i) {
+            i = index;
+            off = offset;
+        }
+        else if(index > target && index - target < target - i) {
+            for(i = index, off = offset; i > target; i--) {
+                off = previous(off);
+            }
+        }
+
+        for(; i < target && off < limit; i++) {
+            off = next(off);
+        }
+
+        return off;
+    }
+
+    // a lead byte takes only the continuation bytes that actually follow it; a
+    // stray continuation byte, or a lead byte cut short, is a code point of its
+    // own (decoded as U+FFFD), so malformed input never swallows a valid character
+    private int next(int off) {
+
+        int b = bytes.get(off) & 0xFF;
+        int end = Math.min(off + (b < 0xC0 ? 1 : b < 0xE0 ? 2 : b < 0xF0 ? 3 : 4), limit);
+
+        off++;
+        while(off < end && (bytes.get(off) & 0xC0) == 0x80) {
+            off++;
+        }
+
+        return off;
+    }
+
+    private int previous(int off) {
+
+        int min = Math.max(off - 4, 0);
+        int start = off;
+
+        do {
+            start--;
+        } while(start > min && (bytes.get(start) & 0xC0) == 0x80);
+
+        // unless the lead byte found reaches exactly up to off, the byte before off is a stray one
+        return next(start) == off ? start : off - 1;
+    }
+
+    private int decode(int off) {
+
+        int b = bytes.get(off) & 0xFF;
+
+        if(b < 0x80) {
+            return b;
+        }
+
+        int length;
+        int codePoint;
+
+        if(b >= 0xF0) {
+            length = 4;
+            codePoint = b & 0x07;
+        }
+        else if(b >= 0xE0) {
+            length = 3;
+            codePoint = b & 0x0F;
+        }
+        else if(b >= 0xC0) {
+            length = 2;
+            codePoint = b & 0x1F;
+        }
+        else {
+            // stray continuation byte
+            return 0xFFFD;
+        }
+
+        if(off + length > limit) {
+            return 0xFFFD;
+        }
+
+        for(int n = 1; n < length; n++) {
+            int c = bytes.get(off + n) & 0xFF;
+            if((c & 0xC0) != 0x80) {
+                return 0xFFFD;
+            }
+            codePoint = (codePoint << 6) | (c & 0x3F);
+        }
+
+        return codePoint;
+    }
+}
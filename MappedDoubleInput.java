@@ -0,0 +1,46 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// read() from a file of raw little-endian doubles, 8 bytes each, mapped
+// into memory so there is nothing to parse and no copying
+public class MappedDoubleInput implements InputSource {
+
+    private final DoubleBuffer doubles;
+
+    public MappedDoubleInput(ByteBuffer bytes) {
+        this.doubles = bytes.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    public static MappedDoubleInput open(Path file) throws IOException {
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            long length = channel.size();
+
+            if(length > Integer.MAX_VALUE) {
+                throw new IOException("too large to map: " + file + " (" + length + " bytes)");
+            }
+
+            if(length % Double.BYTES != 0) {
+                throw new IOException("not a whole number of doubles: " + file + " (" + length + " bytes)");
+            }
+
+            return new MappedDoubleInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+        }
+    }
+
+    @Override
+    public synchronized double readDouble() {
+
+        if(!doubles.hasRemaining()) {
+            throw new EndOfInputException();
+        }
+
+        return doubles.get();
+    }
+}
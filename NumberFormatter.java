@@ -0,0 +1,107 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// writes doubles as ASCII straight into a byte buffer: integral values as
+// plain digits (25, not 25.0), others with the fewest decimals that still
+// read back as the same double. Only values below 0.001, beyond 2^53, or
+// needing more than 15-16 significant digits go through Double.toString
+public class NumberFormatter {
+
+    // the most bytes write() ever needs, e.g. -1.2345678901234567E-308
+    public static final int MAX_LENGTH = 32;
+
+    // every long below this is exactly a double, and so is m / 10^p for all m below it
+    private static final double EXACT = 1L << 53;
+
+    private static final double[] POWERS_OF_TEN = new double[18];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for(int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    public static void write(double value, ByteBuffer out) {
+
+        double magnitude = Math.abs(value);
+
+        if(magnitude < EXACT && value == Math.rint(value)) {
+            if(Double.doubleToRawLongBits(value) < 0) {
+                out.put((byte) '-');
+            }
+            putDecimal((long) magnitude, 0, out);
+            return;
+        }
+
+        if(magnitude >= 1e-3) {
+            for(int p = 1; p < POWERS_OF_TEN.length; p++) {
+
+                double scaled = magnitude * POWERS_OF_TEN[p];
+
+                if(scaled >= EXACT) {
+                    break;
+                }
+
+                // the product may be off by one ulp, so try the neighbours too
+                long m = Math.round(scaled);
+                long digits = m / POWERS_OF_TEN[p] == magnitude ? m :
+                        (m - 1) / POWERS_OF_TEN[p] == magnitude ? m - 1 :
+                        (m + 1) / POWERS_OF_TEN[p] == magnitude ? m + 1 : -1;
+
+                // m / 10^p is correctly rounded, so a match reads back as exactly this value
+                if(digits >= 0) {
+                    if(value < 0) {
+                        out.put((byte) '-');
+                    }
+                    putDecimal(digits, p, out);
+                    return;
+                }
+            }
+        }
+
+        String text = Double.toString(value);
+        for(int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+    }
+
+    // the same text as a String, for writers that need one
+    public static String toString(double value) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_LENGTH);
+        write(value, buffer);
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+    }
+
+    // digits / 10^decimals, with a leading "0" when it is below 1
+    private static void putDecimal(long digits, int decimals, ByteBuffer out) {
+
+        int count = Math.max(length(digits), decimals + 1);
+        int start = out.position();
+        int end = decimals == 0 ? start + count : start + count + 1;
+        int point = end - decimals - 1;
+
+        int index = end - 1;
+        for(int i = 0; i < count; i++) {
+            if(decimals > 0 && index == point) {
+                out.put(index--, (byte) '.');
+            }
+            out.put(index--, (byte) ('0' + digits % 10));
+            digits /= 10;
+        }
+
+        out.position(end);
+    }
+
+    private static int length(long digits) {
+
+        int length = 1;
+
+        while(digits >= 10) {
+            digits /= 10;
+            length++;
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,11 @@
+// where print and bare expression statements send their values
+public interface OutputSink {
+
+    // one value per line: numbers as NumberFormatter writes them, booleans
+    // as 1 or 0, everything else as Value.toString()
+    void print(Value value);
+
+    // hands everything printed so far to the other side; called before a
+    // script waits for input and when it ends
+    void flush();
+}
@@ -0,0 +1,287 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+// evaluates a script's top-level statements concurrently where they can't
+// tell the difference: every statement waits for the earlier ones that
+// write a variable it reads or writes, or read one it writes, and nothing
+// else. What each statement prints is held back and written out in the
+// statements' order, so the output is the same as one at a time. A
+// statement that calls read() waits for everything before it and is
+// waited for by everything after it, keeping prompts and input in order
+public class ParallelEvaluator {
+
+    // for deeply nested expressions, like the main thread has
+    private static final long STACK_SIZE = 1L << 26;
+
+    private final OutputSink output;
+    private final InputSource input;
+    private final int threads;
+    private final ExecutionLimits limits;
+
+    private LoopParallelizer loops;
+
+    // the variables of every statement; they only share it when they touch different keys
+    private final VariableStore memory = new VariableStore();
+
+    public ParallelEvaluator(OutputSink output, InputSource input, int threads) {
+        this(output, input, threads, null);
+    }
+
+    // limits: for all the statements together, or null
+    public ParallelEvaluator(OutputSink output, InputSource input, int threads, ExecutionLimits limits) {
+        this.output = output;
+        this.input = input;
+        this.threads = threads;
+        this.limits = limits;
+    }
+
+    // each statement's loops go to the given parallelizer too, null for none
+    public void parallelizeLoops(LoopParallelizer loops) {
+        this.loops = loops;
+    }
+
+    public void run(CalculatorParser.ParseContext tree) {
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(null, task, "statement", STACK_SIZE);
+            // a statement still running when an earlier one failed mustn't keep the JVM up
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<CalculatorParser.StatContext> statements = tree.block().stat();
+            List<CalculatorParser.StatContext> segment = new ArrayList<CalculatorParser.StatContext>();
+
+            for(CalculatorParser.StatContext statement : statements) {
+
+                Access access = new Access(statement);
+
+                if(access.reads) {
+                    run(segment, pool);
+                    segment.clear();
+                    EvalVisitor visitor = new EvalVisitor(memory, output, input);
+                    visitor.parallelizeLoops(loops);
+                    visitor.limit(limits);
+                    visitor.visit(statement);
+                }
+                else {
+                    segment.add(statement);
+                }
+            }
+
+            run(segment, pool);
+        }
+        finally {
+            pool.shutdownNow();
+            output.flush();
+        }
+    }
+
+    // statements without read(): started as soon as what they depend on is done, written out in order
+    private void run(List<CalculatorParser.StatContext> statements, ExecutorService pool) {
+
+        List<CompletableFuture<Void>> done = new ArrayList<CompletableFuture<Void>>();
+        Ordered ordered = new Ordered(statements.size());
+
+        // per variable: the last statement that wrote it, and those that read it since
+        Map<String, Integer> writer = new HashMap<String, Integer>();
+        Map<String, List<Integer>> readers = new HashMap<String, List<Integer>>();
+
+        for(int i = 0; i < statements.size(); i++) {
+
+            CalculatorParser.StatContext statement = statements.get(i);
+            Access access = new Access(statement);
+            Set<Integer> after = new LinkedHashSet<Integer>();
+
+            for(String name : access.read) {
+                if(writer.containsKey(name)) {
+                    after.add(writer.get(name));
+                }
+            }
+
+            for(String name : access.written) {
+                if(writer.containsKey(name)) {
+                    after.add(writer.get(name));
+                }
+                if(readers.containsKey(name)) {
+                    after.addAll(readers.get(name));
+                }
+            }
+
+            for(String name : access.read) {
+                readers.computeIfAbsent(name, key -> new ArrayList<Integer>()).add(i);
+            }
+
+            for(String name : access.written) {
+                writer.put(name, i);
+                readers.remove(name);
+            }
+
+            after.remove(i);
+
+            int position = i;
+            EvalVisitor visitor = new EvalVisitor(memory, new Capture(ordered, position), input);
+            visitor.parallelizeLoops(loops);
+            visitor.limit(limits);
+            Runnable task = () -> {
+                visitor.visit(statement);
+                ordered.finished(position);
+            };
+
+            CompletableFuture<?>[] dependencies = new CompletableFuture<?>[after.size()];
+            int d = 0;
+            for(int index : after) {
+                dependencies[d++] = done.get(index);
+            }
+
+            done.add(dependencies.length == 0 ?
+                    CompletableFuture.runAsync(task, pool) :
+                    CompletableFuture.allOf(dependencies).thenRunAsync(task, pool));
+        }
+
+        // by the time the last one is done, Ordered has written everything out
+        for(CompletableFuture<Void> statement : done) {
+            try {
+                statement.join();
+            }
+            catch(CompletionException e) {
+                // the first failure in statement order, as it is (see Main.onDeepStack)
+                if(e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+    }
+
+    // the variables a statement reads and writes anywhere inside it, and whether it calls read()
+    private static class Access {
+
+        final Set<String> read = new LinkedHashSet<String>();
+        final Set<String> written = new LinkedHashSet<String>();
+        boolean reads = false;
+
+        Access(ParseTree statement) {
+
+            Deque<ParseTree> pending = new ArrayDeque<ParseTree>();
+            pending.push(statement);
+
+            while(!pending.isEmpty()) {
+
+                ParseTree node = pending.pop();
+
+                if(node instanceof CalculatorParser.AssignmentContext) {
+                    written.add(((CalculatorParser.AssignmentContext) node).ID().getText());
+                }
+                else if(node instanceof CalculatorParser.IdAtomContext) {
+                    read.add(node.getText());
+                }
+                else if(node instanceof CalculatorParser.PreIncExprContext) {
+                    update(((CalculatorParser.PreIncExprContext) node).ID().getText());
+                }
+                else if(node instanceof CalculatorParser.PostIncExprContext) {
+                    update(((CalculatorParser.PostIncExprContext) node).ID().getText());
+                }
+                else if(node instanceof CalculatorParser.PreDecExprContext) {
+                    update(((CalculatorParser.PreDecExprContext) node).ID().getText());
+                }
+                else if(node instanceof CalculatorParser.PostDecExprContext) {
+                    update(((CalculatorParser.PostDecExprContext) node).ID().getText());
+                }
+                else if(node instanceof CalculatorParser.LibFuncExprContext &&
+                        ((CalculatorParser.LibFuncExprContext) node).op.getType() == CalculatorParser.READ) {
+                    reads = true;
+                }
+
+                for(int i = 0; i < node.getChildCount(); i++) {
+                    pending.push(node.getChild(i));
+                }
+            }
+        }
+
+        private void update(String name) {
+            read.add(name);
+            written.add(name);
+        }
+    }
+
+    // puts a segment's output in statement order: the earliest statement not
+    // done yet prints straight to the output, the ones after it keep what they
+    // print until everything before them is done. A statement that fails is
+    // never done, so what it printed up to the failure comes out, and nothing
+    // after it
+    private class Ordered {
+
+        private final List<List<Value>> kept;
+        private final boolean[] done;
+        private int first = 0;
+
+        Ordered(int statements) {
+            kept = new ArrayList<List<Value>>(statements);
+            for(int i = 0; i < statements; i++) {
+                kept.add(new ArrayList<Value>());
+            }
+            done = new boolean[statements];
+        }
+
+        // by more than one thread, in a parallel statement
+        synchronized void print(int statement, Value value) {
+            if(statement == first) {
+                output.print(value);
+            }
+            else {
+                kept.get(statement).add(value);
+            }
+        }
+
+        synchronized void finished(int statement) {
+
+            done[statement] = true;
+
+            while(first < done.length && done[first]) {
+                first++;
+                if(first < done.length) {
+                    // its turn: what it printed so far, then straight through
+                    for(Value value : kept.get(first)) {
+                        output.print(value);
+                    }
+                    kept.set(first, null);
+                }
+            }
+        }
+    }
+
+    // one statement's print()s, to Ordered
+    private static class Capture implements OutputSink {
+
+        private final Ordered ordered;
+        private final int statement;
+
+        Capture(Ordered ordered, int statement) {
+            this.ordered = ordered;
+            this.statement = statement;
+        }
+
+        @Override
+        public void print(Value value) {
+            ordered.print(statement, value);
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
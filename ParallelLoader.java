@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+
+// splits a large script at top-level statement boundaries and parses the
+// pieces in parallel, each with its own lexer and parser (the DFA cache is
+// static and shared between them); the result is a single program tree
+public class ParallelLoader {
+
+    // below this there's no point in splitting
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    private final ForkJoinPool pool;
+
+    public ParallelLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public CalculatorParser.ParseContext load(String fileName) throws IOException {
+
+        try(FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+            long length = channel.size();
+
+            if(length > Integer.MAX_VALUE) {
+                throw new IOException("too large to map: " + fileName + " (" + length + " bytes)");
+            }
+
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, length), fileName);
+        }
+    }
+
+    public CalculatorParser.ParseContext parse(ByteBuffer bytes, String name) {
+
+        // a few chunks per worker evens out chunks that parse slower than others
+        int chunkSize = pool.getParallelism() == 1 ?
+                Integer.MAX_VALUE :
+                Math.max(MIN_CHUNK_SIZE, bytes.limit() / (pool.getParallelism() * 4));
+        List<Chunk> chunks = split(bytes, name, chunkSize);
+
+        List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>();
+        for(Chunk chunk : chunks) {
+            tasks.add(() -> chunk.parse(false));
+        }
+
+        try {
+            for(Future<Chunk> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while parsing " + name);
+        }
+        catch(ExecutionException e) {
+            throw new RuntimeException("could not parse " + name, e.getCause());
+        }
+
+        // execution order is the order of the chunks, only parsing was parallel
+        List<CalculatorParser.StatContext> stats = new ArrayList<CalculatorParser.StatContext>();
+
+        for(int i = 0; i < chunks.size(); i++) {
+
+            Chunk chunk = chunks.get(i);
+
+            // a failed chunk means a statement spanned the split (an operator at
+            // the end of a line, say), so glue on the next chunk and try again
+            while(chunk.errors > 0 && i + 1 < chunks.size()) {
+                chunk = chunk.join(chunks.get(++i)).parse(false);
+            }
+
+            if(chunk.errors > 0) {
+                // out of chunks to glue on: parse once more, reporting the errors this time
+                chunk.parse(true);
+            }
+
+            stats.addAll(chunk.tree.block().stat());
+        }
+
+        return stitch(stats);
+    }
+
+    // wraps statements parsed separately into one parse -> block tree
+    static CalculatorParser.ParseContext stitch(List<CalculatorParser.StatContext> stats) {
+
+        CalculatorParser.ParseContext program = new CalculatorParser.ParseContext(null, -1);
+        CalculatorParser.BlockContext block = new CalculatorParser.BlockContext(program, -1);
+        program.addChild(block);
+
+        for(CalculatorParser.StatContext stat : stats) {
+            block.addChild(stat);
+            stat.setParent(block);
+        }
+
+        return program;
+    }
+
+    // cuts at line starts that are outside any braces, parentheses, strings and
+    // comments, and where the line starts with something no statement can be
+    // continued by (an identifier, keyword, number or string, but not 'else')
+    static List<Chunk> split(ByteBuffer bytes, String name, int chunkSize) {
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int limit = bytes.limit();
+
+        int start = 0;
+        int startLine = 1;
+        int line = 1;
+        int depth = 0;
+        boolean inString = false;
+        boolean inComment = false;
+
+        for(int off = 0; off < limit; off++) {
+
+            byte b = bytes.get(off);
+
+            if(b == '\n') {
+                line++;
+                inString = false;
+                inComment = false;
+
+                if(depth == 0 && off + 1 - start >= chunkSize && startsStatement(bytes, off + 1)) {
+                    chunks.add(new Chunk(bytes, start, off + 1, name, startLine));
+                    start = off + 1;
+                    startLine = line;
+                }
+            }
+            else if(inComment) {
+                continue;
+            }
+            else if(b == '"') {
+                // a doubled quote inside a string just toggles twice
+                inString = !inString;
+            }
+            else if(inString) {
+                continue;
+            }
+            else if(b == '#') {
+                inComment = true;
+            }
+            else if(b == '{' || b == '(') {
+                depth++;
+            }
+            else if(b == '}' || b == ')') {
+                depth--;
+            }
+        }
+
+        chunks.add(new Chunk(bytes, start, limit, name, startLine));
+
+        return chunks;
+    }
+
+    private static boolean startsStatement(ByteBuffer bytes, int off) {
+
+        int limit = bytes.limit();
+
+        while(off < limit && (bytes.get(off) == ' ' || bytes.get(off) == '\t' || bytes.get(off) == '\r')) {
+            off++;
+        }
+
+        if(off >= limit) {
+            return false;
+        }
+
+        byte b = bytes.get(off);
+
+        if(b == 'e' && off + 4 <= limit && bytes.get(off + 1) == 'l' && bytes.get(off + 2) == 's' && bytes.get(off + 3) == 'e') {
+            // 'else' continues an if_stat, but 'elsewhere' would be a fine identifier
+            return off + 4 < limit && Character.isJavaIdentifierPart(bytes.get(off + 4));
+        }
+
+        return Character.isLetterOrDigit(b) || b == '_' || b == '"' || b == '.';
+    }
+
+    static class Chunk {
+
+        final ByteBuffer source;
+        final int start;
+        final int end;
+        final String name;
+        final int line;
+
+        CalculatorParser.ParseContext tree;
+        int errors;
+
+        Chunk(ByteBuffer source, int start, int end, String name, int line) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+            this.name = name;
+            this.line = line;
+        }
+
+        Chunk parse(boolean report) {
+
+            CalculatorLexer lexer = new CalculatorLexer(new MappedCharStream(source.slice(start, end - start), name));
+            lexer.setLine(line);
+            lexer.setTokenFactory(new CommonTokenFactory(true));
+
+            CalculatorParser parser = new CalculatorParser(new CommonTokenStream(lexer));
+
+            if(!report) {
+                parser.removeErrorListener(ConsoleErrorListener.INSTANCE);
+            }
+
+            tree = parser.parse();
+            errors = parser.getNumberOfSyntaxErrors();
+
+            return this;
+        }
+
+        Chunk join(Chunk next) {
+            // chunks are adjacent ranges of the same buffer
+            return new Chunk(source, start, next.end, name, line);
+        }
+    }
+}
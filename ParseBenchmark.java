@@ -0,0 +1,86 @@
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+// times parsing a large generated script with and without statement terminators:
+//   java ParseBenchmark [statements]
+public class ParseBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        String script = script(statements);
+
+        System.out.println("script: " + statements + " statements, " + script.length() + " chars");
+
+        // interleaved so both get the same JIT warm-up
+        long[] plain = new long[RUNS];
+        long[] terminated = new long[RUNS];
+
+        for(int run = -1; run < RUNS; run++) {
+
+            long start = System.nanoTime();
+            new CalculatorParser(new CommonTokenStream(new CalculatorLexer(CharStreams.fromString(script)))).parse();
+            long middle = System.nanoTime();
+            TerminatorFilter.parser(CharStreams.fromString(script)).parse();
+            long end = System.nanoTime();
+
+            if(run >= 0) {
+                plain[run] = middle - start;
+                terminated[run] = end - middle;
+            }
+        }
+
+        System.out.printf("default:     best %8.1f ms%n", best(plain) / 1e6);
+        System.out.printf("terminators: best %8.1f ms%n", best(terminated) / 1e6);
+    }
+
+    // one statement per line, valid in both modes
+    private static String script(int statements) {
+
+        StringBuilder builder = new StringBuilder();
+
+        for(int i = 0; i < statements; i++) {
+            switch (i % 8) {
+                case 0:
+                    builder.append("x").append(i % 100).append(" = ").append(i).append(" * (y + 2) - 1\n");
+                    break;
+                case 1:
+                    builder.append("y = x").append((i - 1) % 100).append(" % 7\n");
+                    break;
+                case 2:
+                    builder.append("y++\n");
+                    break;
+                case 3:
+                    builder.append("--y\n");
+                    break;
+                case 4:
+                    builder.append("y - 1\n");
+                    break;
+                case 5:
+                    builder.append("print y, x").append((i - 5) % 100).append(", \"done\"\n");
+                    break;
+                case 6:
+                    builder.append("if (y > 3) {\n  y = y - 3\n} else {\n  y = y + 1\n}\n");
+                    break;
+                default:
+                    builder.append("while y > 10 { y = y / 2 }\n");
+                    break;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static long best(long[] times) {
+
+        long best = Long.MAX_VALUE;
+
+        for(long time : times) {
+            best = Math.min(best, time);
+        }
+
+        return best;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.BlockStartState;
+import org.antlr.v4.runtime.atn.DecisionEventInfo;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+import org.antlr.v4.runtime.atn.DecisionState;
+import org.antlr.v4.runtime.atn.PlusBlockStartState;
+import org.antlr.v4.runtime.atn.PlusLoopbackState;
+import org.antlr.v4.runtime.atn.StarLoopEntryState;
+
+// parses a script with ANTLR's profiling ATN simulator and reports, per
+// grammar decision, how much prediction work it took and where in the
+// input SLL prediction failed, was context sensitive or ambiguous
+public class ParseProfiler {
+
+    // input locations listed per decision and kind of event
+    private static final int MAX_EVENTS = 5;
+
+    // terminators: parse the way -terminators does, through TerminatorFilter
+    public static void report(String file, boolean terminators, PrintStream out) throws IOException {
+
+        CalculatorParser parser = terminators ?
+                TerminatorFilter.parser(MappedCharStream.open(file)) :
+                new CalculatorParser(new CommonTokenStream(new CalculatorLexer(MappedCharStream.open(file))));
+        CommonTokenStream tokens = (CommonTokenStream) parser.getTokenStream();
+        parser.setProfile(true);
+
+        long start = System.nanoTime();
+        parser.parse();
+        long total = System.nanoTime() - start;
+
+        List<DecisionInfo> decisions = new ArrayList<DecisionInfo>();
+        for(DecisionInfo decision : parser.getParseInfo().getDecisionInfo()) {
+            if(decision.invocations > 0) {
+                decisions.add(decision);
+            }
+        }
+
+        // most expensive first
+        decisions.sort((a, b) -> Long.compare(b.timeInPrediction, a.timeInPrediction));
+
+        out.printf("parse: %.3f ms, %d tokens, %d syntax errors%n",
+                total / 1e6, tokens.size(), parser.getNumberOfSyntaxErrors());
+        out.printf("%-4s %-16s %-16s %10s %10s %8s %8s %8s %8s %8s %6s %10s%n",
+                "dec", "rule", "kind", "calls", "time ms", "SLL look", "SLL max", "LL look", "LL max",
+                "LL runs", "ambig", "ctx sens");
+
+        for(DecisionInfo decision : decisions) {
+            out.printf("%-4d %-16s %-16s %10d %10.3f %8d %8d %8d %8d %8d %6d %10d%n",
+                    decision.decision,
+                    rule(parser, decision.decision),
+                    kind(parser, decision.decision),
+                    decision.invocations,
+                    decision.timeInPrediction / 1e6,
+                    decision.SLL_TotalLook,
+                    decision.SLL_MaxLook,
+                    decision.LL_TotalLook,
+                    decision.LL_MaxLook,
+                    decision.LL_Fallback,
+                    decision.ambiguities.size(),
+                    decision.contextSensitivities.size());
+        }
+
+        for(DecisionInfo decision : decisions) {
+
+            String name = "decision " + decision.decision + " (" + rule(parser, decision.decision) + ")";
+
+            events(out, tokens, name, "deepest SLL lookahead", decision.SLL_MaxLookEvent == null ?
+                    new ArrayList<DecisionEventInfo>() : Arrays.<DecisionEventInfo>asList(decision.SLL_MaxLookEvent));
+            events(out, tokens, name, "deepest LL lookahead", decision.LL_MaxLookEvent == null ?
+                    new ArrayList<DecisionEventInfo>() : Arrays.<DecisionEventInfo>asList(decision.LL_MaxLookEvent));
+            events(out, tokens, name, "context sensitive", decision.contextSensitivities);
+            events(out, tokens, name, "ambiguous", decision.ambiguities);
+            events(out, tokens, name, "syntax error", decision.errors);
+        }
+    }
+
+    private static void events(PrintStream out, CommonTokenStream tokens, String decision, String what,
+                               List<? extends DecisionEventInfo> events) {
+
+        for(int i = 0; i < events.size() && i < MAX_EVENTS; i++) {
+
+            DecisionEventInfo event = events.get(i);
+            Token first = tokens.get(event.startIndex);
+            int stop = Math.min(event.stopIndex, tokens.size() - 1);
+
+            StringBuilder builder = new StringBuilder();
+            for(Token token : tokens.get(event.startIndex, stop)) {
+                builder.append(builder.length() == 0 ? "" : " ").append(token.getText());
+            }
+
+            String text = builder.toString();
+            if(text.length() > 60) {
+                text = text.substring(0, 57) + "...";
+            }
+
+            out.printf("%s: %s at line %d:%d, %d tokens: %s%n", decision, what,
+                    first.getLine(), first.getCharPositionInLine(), stop - event.startIndex + 1, text);
+        }
+
+        if(events.size() > MAX_EVENTS) {
+            out.printf("%s: %d more %s%n", decision, events.size() - MAX_EVENTS, what);
+        }
+    }
+
+    private static String rule(CalculatorParser parser, int decision) {
+        return parser.getRuleNames()[parser.getATN().getDecisionState(decision).ruleIndex];
+    }
+
+    private static String kind(CalculatorParser parser, int decision) {
+
+        DecisionState state = parser.getATN().getDecisionState(decision);
+
+        if(state instanceof StarLoopEntryState) {
+            // left recursive rules like expr loop over their binary operators
+            return ((StarLoopEntryState) state).isPrecedenceDecision ? "operator loop" : "(...)* loop";
+        }
+
+        if(state instanceof PlusBlockStartState || state instanceof PlusLoopbackState) {
+            return "(...)+ loop";
+        }
+
+        if(state instanceof BlockStartState) {
+            return state.getNumberOfTransitions() + " alternatives";
+        }
+
+        return "loop exit";
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.concurrent.locks.LockSupport;
+
+// decodes numbers ahead of read() on a thread of its own, so waiting for
+// input and parsing it overlap with evaluation. The two sides share a
+// single-producer single-consumer ring: each only ever writes its own
+// index, and only parks when the ring is full (reader) or empty (script).
+// A full ring is left to drain to half before the reader is woken again,
+// or the two would take turns waking each other for every number
+public class PrefetchingInput implements InputSource {
+
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private final double[] ring;
+    private final int mask;
+
+    // read() takes from head, the reader thread adds at tail
+    private volatile long head = 0;
+    private volatile long tail = 0;
+
+    // set once the reader has added its last number
+    private volatile boolean finished = false;
+    private volatile RuntimeException failure;
+
+    // whoever is parked waiting for the other side, if anyone
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+
+    public PrefetchingInput(InputSource source) {
+        this(source, DEFAULT_CAPACITY);
+    }
+
+    public PrefetchingInput(InputSource source, int capacity) {
+
+        if(Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+
+        this.ring = new double[capacity];
+        this.mask = capacity - 1;
+
+        Thread reader = new Thread(() -> fill(source), "read-ahead");
+        // unread input mustn't keep the program alive
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void fill(InputSource source) {
+
+        try {
+            while(true) {
+
+                double value;
+
+                try {
+                    value = source.readDouble();
+                }
+                catch(EndOfInputException e) {
+                    break;
+                }
+
+                long t = tail;
+
+                while(t - head == ring.length) {
+                    waitingProducer = Thread.currentThread();
+                    if(t - head == ring.length) {
+                        LockSupport.park(this);
+                    }
+                    waitingProducer = null;
+                }
+
+                ring[(int) t & mask] = value;
+                // the volatile write publishes the slot along with it
+                tail = t + 1;
+
+                wake(waitingConsumer);
+            }
+        }
+        catch(RuntimeException e) {
+            failure = e;
+        }
+        finally {
+            finished = true;
+            wake(waitingConsumer);
+        }
+    }
+
+    @Override
+    public synchronized double readDouble() {
+
+        long h = head;
+
+        while(h == tail) {
+
+            if(finished) {
+                // the last numbers may have landed just before finished was set
+                if(h != tail) {
+                    break;
+                }
+                if(failure != null) {
+                    throw failure;
+                }
+                throw new EndOfInputException();
+            }
+
+            waitingConsumer = Thread.currentThread();
+            if(h == tail && !finished) {
+                LockSupport.park(this);
+            }
+            waitingConsumer = null;
+        }
+
+        double value = ring[(int) h & mask];
+        head = h + 1;
+
+        if(waitingProducer != null && tail - head <= ring.length / 2) {
+            wake(waitingProducer);
+        }
+
+        return value;
+    }
+
+    private static void wake(Thread thread) {
+        if(thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
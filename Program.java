@@ -0,0 +1,251 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// a compiled script: code for a small stack machine (see Interpreter), the
+// constants it pushes and the names of the variables it uses, by slot
+public class Program {
+
+    // "CALC" and the version of the binary format written by write()
+    private static final int MAGIC = 0x43414C43;
+    private static final int FORMAT_VERSION = 1;
+
+    // push constants[arg]
+    public static final int CONST = 0;
+    // push / pop variable slot arg
+    public static final int LOAD = 1;
+    public static final int STORE = 2;
+    public static final int POP = 3;
+
+    public static final int ADD = 4;
+    public static final int SUB = 5;
+    public static final int MUL = 6;
+    public static final int DIV = 7;
+    public static final int MOD = 8;
+    public static final int POW = 9;
+    public static final int NEG = 10;
+    public static final int NOT = 11;
+    public static final int LT = 12;
+    public static final int LTEQ = 13;
+    public static final int GT = 14;
+    public static final int GTEQ = 15;
+    public static final int EQ = 16;
+    public static final int NEQ = 17;
+    public static final int AND = 18;
+    public static final int OR = 19;
+
+    public static final int SIN = 20;
+    public static final int COS = 21;
+    public static final int LOG = 22;
+    public static final int EXP = 23;
+    public static final int SQRT = 24;
+    public static final int READ = 25;
+
+    // update variable slot arg and push its new (PRE) or old (POST) value
+    public static final int PREINC = 26;
+    public static final int POSTINC = 27;
+    public static final int PREDEC = 28;
+    public static final int POSTDEC = 29;
+
+    public static final int PRINT = 30;
+
+    // jump to arg; JUMPF only when the popped value is false, LOOP is a backward jump
+    public static final int JUMP = 31;
+    public static final int JUMPF = 32;
+    public static final int LOOP = 33;
+
+    public static final int HALT = 34;
+
+    static final String[] OPCODE_NAMES = {
+            "CONST", "LOAD", "STORE", "POP",
+            "ADD", "SUB", "MUL", "DIV", "MOD", "POW", "NEG", "NOT",
+            "LT", "LTEQ", "GT", "GTEQ", "EQ", "NEQ", "AND", "OR",
+            "SIN", "COS", "LOG", "EXP", "SQRT", "READ",
+            "PREINC", "POSTINC", "PREDEC", "POSTDEC",
+            "PRINT", "JUMP", "JUMPF", "LOOP", "HALT"
+    };
+
+    final int[] code;
+    final Value[] constants;
+    final String[] names;
+
+    // deepest the operand stack gets
+    final int maxStack;
+
+    Program(int[] code, Value[] constants, String[] names, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.names = names;
+        this.maxStack = maxStack;
+    }
+
+    public String[] names() {
+        return names.clone();
+    }
+
+    // the slot of a variable, or -1 if the program never uses it
+    public int slot(String name) {
+
+        for(int i = 0; i < names.length; i++) {
+            if(names[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    static boolean hasArgument(int opcode) {
+        switch (opcode) {
+            case CONST:
+            case LOAD:
+            case STORE:
+            case PREINC:
+            case POSTINC:
+            case PREDEC:
+            case POSTDEC:
+            case JUMP:
+            case JUMPF:
+            case LOOP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder();
+
+        for(int pc = 0; pc < code.length; pc++) {
+
+            int opcode = code[pc];
+            builder.append(pc).append('\t').append(OPCODE_NAMES[opcode]);
+
+            if(hasArgument(opcode)) {
+                int arg = code[++pc];
+                builder.append(' ').append(arg);
+                if(opcode == CONST) {
+                    builder.append("\t; ").append(constants[arg]);
+                }
+                else if(opcode == LOAD || opcode == STORE || (opcode >= PREINC && opcode <= POSTDEC)) {
+                    builder.append("\t; ").append(names[arg]);
+                }
+            }
+
+            builder.append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    // the binary format: magic, version, max stack, code, constants, names;
+    // all ints big endian, strings as an int length and UTF-8 bytes
+    public void write(OutputStream stream) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(stream);
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(maxStack);
+
+        out.writeInt(code.length);
+        for(int word : code) {
+            out.writeInt(word);
+        }
+
+        out.writeInt(constants.length);
+        for(Value constant : constants) {
+            if(constant.isDouble()) {
+                out.writeByte('D');
+                out.writeDouble(constant.asDouble());
+            }
+            else if(constant.isString()) {
+                out.writeByte('S');
+                writeString(out, (String) constant.value);
+            }
+            else if(constant.isBoolean()) {
+                out.writeByte('B');
+                out.writeBoolean(constant.asBoolean());
+            }
+            else {
+                out.writeByte('N');
+            }
+        }
+
+        out.writeInt(names.length);
+        for(String name : names) {
+            writeString(out, name);
+        }
+
+        out.flush();
+    }
+
+    public static Program read(ByteBuffer in) throws IOException {
+
+        if(in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+            throw new IOException("not a compiled program (or written by another version)");
+        }
+
+        int maxStack = in.getInt();
+
+        int[] code = new int[length(in, 4)];
+        in.asIntBuffer().get(code);
+        in.position(in.position() + code.length * 4);
+
+        Value[] constants = new Value[length(in, 1)];
+        for(int i = 0; i < constants.length; i++) {
+            byte tag = in.get();
+            switch (tag) {
+                case 'D':
+                    constants[i] = new Value(in.getDouble());
+                    break;
+                case 'S':
+                    constants[i] = new Value(readString(in));
+                    break;
+                case 'B':
+                    constants[i] = new Value(in.get() != 0);
+                    break;
+                case 'N':
+                    constants[i] = new Value(null);
+                    break;
+                default:
+                    throw new IOException("bad constant tag: " + tag);
+            }
+        }
+
+        String[] names = new String[length(in, 4)];
+        for(int i = 0; i < names.length; i++) {
+            names[i] = readString(in);
+        }
+
+        return new Program(code, constants, names, maxStack);
+    }
+
+    // a count read from the input, checked against what's left of it
+    private static int length(ByteBuffer in, int minimumElementSize) throws IOException {
+
+        int length = in.getInt();
+
+        if(length < 0 || (long) length * minimumElementSize > in.remaining()) {
+            throw new IOException("truncated program");
+        }
+
+        return length;
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[length(in, 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
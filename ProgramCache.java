@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+
+// compiled programs on disk, one file per script keyed by a hash of the
+// script's bytes, the engine version and how it was parsed: an edited script
+// hashes differently, so stale entries are simply never looked up again
+public class ProgramCache {
+
+    // bump whenever the compiler's output changes, to orphan every old entry
+    public static final String ENGINE_VERSION = "1";
+
+    private final Path directory;
+
+    public ProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // what the compiler callback gives back: the program, and how many syntax
+    // errors the parser recovered from to get it. Such a program still runs,
+    // but isn't stored, so every run reports the errors again
+    public static final class Compiled {
+
+        final Program program;
+        final int syntaxErrors;
+
+        public Compiled(Program program, int syntaxErrors) {
+            this.program = program;
+            this.syntaxErrors = syntaxErrors;
+        }
+    }
+
+    // the cached program for the script, compiling and (when it parsed cleanly) storing it on a miss
+    public Program load(String file, String variant, Callable<Compiled> compiler) throws Exception {
+
+        Path entry = directory.resolve(key(file, variant) + ".prog");
+
+        if(Files.isRegularFile(entry)) {
+            try {
+                return Program.read(map(entry));
+            }
+            catch(IOException | RuntimeException e) {
+                // unreadable (cut short by a crash, say): compile it again
+            }
+        }
+
+        Compiled compiled = compiler.call();
+
+        if(compiled.syntaxErrors == 0) {
+            store(entry, compiled.program);
+        }
+
+        return compiled.program;
+    }
+
+    private void store(Path entry, Program program) throws IOException {
+
+        Files.createDirectories(directory);
+
+        // write aside and rename, so a concurrent run never sees half a program
+        Path temp = Files.createTempFile(directory, "entry", ".tmp");
+
+        try {
+            try(OutputStream out = Files.newOutputStream(temp)) {
+                program.write(out);
+            }
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String key(String file, String variant) throws IOException {
+
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update((ENGINE_VERSION + "/" + variant + "/").getBytes());
+        digest.update(map(Paths.get(file)));
+
+        StringBuilder hex = new StringBuilder();
+        for(byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            long length = channel.size();
+
+            if(length > Integer.MAX_VALUE) {
+                throw new IOException("too large to map: " + path + " (" + length + " bytes)");
+            }
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+    }
+}
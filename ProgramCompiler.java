@@ -0,0 +1,441 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+// turns a parse tree into a Program. Statements are compiled recursively (they
+// only nest as deep as the script's braces), expressions with an explicit
+// stack, since generated expressions can be nested hundreds of thousands deep
+public class ProgramCompiler extends CalculatorBaseVisitor<Void> {
+
+    private int[] code = new int[64];
+    private int size = 0;
+
+    private final List<Value> constants = new ArrayList<Value>();
+    private final Map<Object, Integer> constantIndex = new HashMap<Object, Integer>();
+
+    private final List<String> names = new ArrayList<String>();
+    private final Map<String, Integer> slots = new HashMap<String, Integer>();
+
+    // operand stack depth at the current instruction, and the deepest it got
+    private int depth = 0;
+    private int maxDepth = 0;
+
+    private final Deque<Loop> loops = new ArrayDeque<Loop>();
+
+    public static Program compile(ParseTree tree) {
+        ProgramCompiler compiler = new ProgramCompiler();
+        compiler.visit(tree);
+        compiler.emit(Program.HALT);
+        return compiler.program();
+    }
+
+    Program program() {
+        return new Program(Arrays.copyOf(code, size), constants.toArray(new Value[0]),
+                names.toArray(new String[0]), maxDepth);
+    }
+
+    // statements
+
+    @Override
+    public Void visitAssignment(CalculatorParser.AssignmentContext ctx) {
+        expression(ctx.expr());
+        emit(Program.STORE, slot(ctx.ID().getText()));
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(CalculatorParser.PrintContext ctx) {
+
+        for(CalculatorParser.ExprContext eCtx : ctx.expr()) {
+            expression(eCtx);
+            emit(Program.PRINT);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitIf_stat(CalculatorParser.If_statContext ctx) {
+
+        List<Integer> ends = new ArrayList<Integer>();
+
+        for(CalculatorParser.Condition_blockContext condition : ctx.condition_block()) {
+            expression(condition.expr());
+            int next = emitJump(Program.JUMPF);
+            this.visit(condition.stat_block());
+            ends.add(emitJump(Program.JUMP));
+            patch(next, size);
+        }
+
+        if(ctx.stat_block() != null) {
+            this.visit(ctx.stat_block());
+        }
+
+        for(int end : ends) {
+            patch(end, size);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitWhile_stat(CalculatorParser.While_statContext ctx) {
+
+        Loop loop = new Loop();
+        loops.push(loop);
+
+        int top = size;
+        expression(ctx.expr());
+        int exit = emitJump(Program.JUMPF);
+
+        this.visit(ctx.stat_block());
+
+        emit(Program.LOOP, top);
+        loop.close(top, size);
+        patch(exit, size);
+
+        loops.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitFor_stat(CalculatorParser.For_statContext ctx) {
+
+        this.visit(ctx.assignment());
+
+        Loop loop = new Loop();
+        loops.push(loop);
+
+        int top = size;
+        expression(ctx.expr(0));
+        int exit = emitJump(Program.JUMPF);
+
+        this.visit(ctx.stat_block());
+
+        int update = size;
+        expression(ctx.expr(1));
+        emit(Program.POP);
+
+        emit(Program.LOOP, top);
+        loop.close(update, size);
+        patch(exit, size);
+
+        loops.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitBrk(CalculatorParser.BrkContext ctx) {
+
+        if(loops.isEmpty()) {
+            throw new RuntimeException("break outside of a loop on line " + ctx.getStart().getLine());
+        }
+
+        loops.peek().breaks.add(emitJump(Program.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitCont(CalculatorParser.ContContext ctx) {
+
+        if(loops.isEmpty()) {
+            throw new RuntimeException("continue outside of a loop on line " + ctx.getStart().getLine());
+        }
+
+        loops.peek().continues.add(emitJump(Program.JUMP));
+        return null;
+    }
+
+    // expressions, in post order without recursing
+
+    void expression(CalculatorParser.ExprContext root) {
+
+        Deque<ParseTree> pending = new ArrayDeque<ParseTree>();
+        // nodes whose children are already on their way
+        Deque<ParseTree> expanded = new ArrayDeque<ParseTree>();
+
+        pending.push(root);
+
+        while(!pending.isEmpty()) {
+
+            ParseTree node = pending.pop();
+
+            if(!expanded.isEmpty() && expanded.peek() == node) {
+                expanded.pop();
+                emitOperator(node);
+                continue;
+            }
+
+            List<ParseTree> children = operands(node);
+
+            if(children.isEmpty()) {
+                emitOperand(node);
+                continue;
+            }
+
+            pending.push(node);
+            expanded.push(node);
+
+            for(int i = children.size() - 1; i >= 0; i--) {
+                pending.push(children.get(i));
+            }
+        }
+    }
+
+    private static List<ParseTree> operands(ParseTree node) {
+
+        List<ParseTree> operands = new ArrayList<ParseTree>(2);
+
+        if(node instanceof CalculatorParser.AtomExprContext) {
+            operands.add(((CalculatorParser.AtomExprContext) node).atom());
+        }
+        else if(node instanceof CalculatorParser.ParExprContext) {
+            operands.add(((CalculatorParser.ParExprContext) node).expr());
+        }
+        else if(node instanceof CalculatorParser.ExprContext) {
+            // every other expression's sub-expressions are its operands, in order
+            for(int i = 0; i < node.getChildCount(); i++) {
+                if(node.getChild(i) instanceof CalculatorParser.ExprContext) {
+                    operands.add(node.getChild(i));
+                }
+            }
+        }
+
+        return operands;
+    }
+
+    private void emitOperand(ParseTree node) {
+
+        if(node instanceof CalculatorParser.NumberAtomContext) {
+            emit(Program.CONST, constant(Double.valueOf(node.getText())));
+        }
+        else if(node instanceof CalculatorParser.StringAtomContext) {
+            String str = node.getText();
+            // strip quotes
+            emit(Program.CONST, constant(str.substring(1, str.length() - 1).replace("\"\"", "\"")));
+        }
+        else if(node instanceof CalculatorParser.BooleanAtomContext) {
+            emit(Program.CONST, constant(Boolean.valueOf(node.getText())));
+        }
+        else if(node instanceof CalculatorParser.NilAtomContext) {
+            emit(Program.CONST, constant(null));
+        }
+        else if(node instanceof CalculatorParser.IdAtomContext) {
+            emit(Program.LOAD, slot(node.getText()));
+        }
+        else if(node instanceof CalculatorParser.PreIncExprContext) {
+            emit(Program.PREINC, slot(((CalculatorParser.PreIncExprContext) node).ID().getText()));
+        }
+        else if(node instanceof CalculatorParser.PostIncExprContext) {
+            emit(Program.POSTINC, slot(((CalculatorParser.PostIncExprContext) node).ID().getText()));
+        }
+        else if(node instanceof CalculatorParser.PreDecExprContext) {
+            emit(Program.PREDEC, slot(((CalculatorParser.PreDecExprContext) node).ID().getText()));
+        }
+        else if(node instanceof CalculatorParser.PostDecExprContext) {
+            emit(Program.POSTDEC, slot(((CalculatorParser.PostDecExprContext) node).ID().getText()));
+        }
+        else {
+            throw new RuntimeException("cannot compile: " + node.getText());
+        }
+    }
+
+    private void emitOperator(ParseTree node) {
+
+        if(node instanceof CalculatorParser.AtomExprContext || node instanceof CalculatorParser.ParExprContext) {
+            // just the operand's value
+        }
+        else if(node instanceof CalculatorParser.PowExprContext) {
+            emit(Program.POW);
+        }
+        else if(node instanceof CalculatorParser.UnaryMinusExprContext) {
+            emit(Program.NEG);
+        }
+        else if(node instanceof CalculatorParser.NotExprContext) {
+            emit(Program.NOT);
+        }
+        else if(node instanceof CalculatorParser.AndExprContext) {
+            emit(Program.AND);
+        }
+        else if(node instanceof CalculatorParser.OrExprContext) {
+            emit(Program.OR);
+        }
+        else if(node instanceof CalculatorParser.MultiplicationExprContext) {
+            emit(opcode(((CalculatorParser.MultiplicationExprContext) node).op.getType()));
+        }
+        else if(node instanceof CalculatorParser.AdditiveExprContext) {
+            emit(opcode(((CalculatorParser.AdditiveExprContext) node).op.getType()));
+        }
+        else if(node instanceof CalculatorParser.RelationalExprContext) {
+            emit(opcode(((CalculatorParser.RelationalExprContext) node).op.getType()));
+        }
+        else if(node instanceof CalculatorParser.EqualityExprContext) {
+            emit(opcode(((CalculatorParser.EqualityExprContext) node).op.getType()));
+        }
+        else if(node instanceof CalculatorParser.LibFuncExprContext) {
+            emit(opcode(((CalculatorParser.LibFuncExprContext) node).op.getType()));
+        }
+        else {
+            throw new RuntimeException("cannot compile: " + node.getText());
+        }
+    }
+
+    private static int opcode(int tokenType) {
+        switch (tokenType) {
+            case CalculatorParser.MULT:
+                return Program.MUL;
+            case CalculatorParser.DIV:
+                return Program.DIV;
+            case CalculatorParser.MOD:
+                return Program.MOD;
+            case CalculatorParser.PLUS:
+                return Program.ADD;
+            case CalculatorParser.MINUS:
+                return Program.SUB;
+            case CalculatorParser.LT:
+                return Program.LT;
+            case CalculatorParser.LTEQ:
+                return Program.LTEQ;
+            case CalculatorParser.GT:
+                return Program.GT;
+            case CalculatorParser.GTEQ:
+                return Program.GTEQ;
+            case CalculatorParser.EQ:
+                return Program.EQ;
+            case CalculatorParser.NEQ:
+                return Program.NEQ;
+            case CalculatorParser.SIN:
+                return Program.SIN;
+            case CalculatorParser.COS:
+                return Program.COS;
+            case CalculatorParser.LOG:
+                return Program.LOG;
+            case CalculatorParser.EXP:
+                return Program.EXP;
+            case CalculatorParser.SQRT:
+                return Program.SQRT;
+            case CalculatorParser.READ:
+                return Program.READ;
+            default:
+                throw new RuntimeException("unknown operator: " + CalculatorParser.VOCABULARY.getDisplayName(tokenType));
+        }
+    }
+
+    // code emission
+
+    private void emit(int opcode) {
+        append(opcode);
+        track(opcode);
+    }
+
+    private void emit(int opcode, int arg) {
+        append(opcode);
+        append(arg);
+        track(opcode);
+    }
+
+    private int emitJump(int opcode) {
+        emit(opcode, -1);
+        return size - 1;
+    }
+
+    private void patch(int at, int target) {
+        code[at] = target;
+    }
+
+    private void append(int word) {
+        if(size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = word;
+    }
+
+    // how each instruction changes the operand stack depth
+    private void track(int opcode) {
+
+        switch (opcode) {
+            case Program.CONST:
+            case Program.LOAD:
+            case Program.PREINC:
+            case Program.POSTINC:
+            case Program.PREDEC:
+            case Program.POSTDEC:
+                depth++;
+                break;
+            case Program.STORE:
+            case Program.POP:
+            case Program.PRINT:
+            case Program.JUMPF:
+            case Program.ADD:
+            case Program.SUB:
+            case Program.MUL:
+            case Program.DIV:
+            case Program.MOD:
+            case Program.POW:
+            case Program.LT:
+            case Program.LTEQ:
+            case Program.GT:
+            case Program.GTEQ:
+            case Program.EQ:
+            case Program.NEQ:
+            case Program.AND:
+            case Program.OR:
+                depth--;
+                break;
+            default:
+                // unary operators, jumps and HALT leave the depth alone
+                break;
+        }
+
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private int constant(Object value) {
+
+        Integer index = constantIndex.get(value);
+
+        if(index == null) {
+            index = constants.size();
+            constants.add(new Value(value));
+            constantIndex.put(value, index);
+        }
+
+        return index;
+    }
+
+    private int slot(String name) {
+
+        Integer slot = slots.get(name);
+
+        if(slot == null) {
+            slot = names.size();
+            names.add(name);
+            slots.put(name, slot);
+        }
+
+        return slot;
+    }
+
+    private class Loop {
+
+        final List<Integer> breaks = new ArrayList<Integer>();
+        final List<Integer> continues = new ArrayList<Integer>();
+
+        void close(int continueTarget, int breakTarget) {
+
+            for(int at : continues) {
+                patch(at, continueTarget);
+            }
+
+            for(int at : breaks) {
+                patch(at, breakTarget);
+            }
+        }
+    }
+}
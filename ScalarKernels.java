@@ -0,0 +1,90 @@
+// plain loops, for when the Vector API isn't available, and for the tails
+// and operators the vector kernels leave over
+public class ScalarKernels implements Kernels {
+
+    @Override
+    public void binary(int opcode, double[] left, double[] right, int n) {
+        binary(opcode, left, right, 0, n);
+    }
+
+    @Override
+    public void unary(int opcode, double[] values, int n) {
+        unary(opcode, values, 0, n);
+    }
+
+    static void binary(int opcode, double[] left, double[] right, int from, int to) {
+
+        switch (opcode) {
+            case Program.ADD:
+                for(int i = from; i < to; i++) {
+                    left[i] += right[i];
+                }
+                break;
+            case Program.SUB:
+                for(int i = from; i < to; i++) {
+                    left[i] -= right[i];
+                }
+                break;
+            case Program.MUL:
+                for(int i = from; i < to; i++) {
+                    left[i] *= right[i];
+                }
+                break;
+            case Program.DIV:
+                for(int i = from; i < to; i++) {
+                    left[i] /= right[i];
+                }
+                break;
+            case Program.MOD:
+                for(int i = from; i < to; i++) {
+                    left[i] %= right[i];
+                }
+                break;
+            case Program.POW:
+                for(int i = from; i < to; i++) {
+                    left[i] = Math.pow(left[i], right[i]);
+                }
+                break;
+            default:
+                throw new RuntimeException("unknown opcode: " + opcode);
+        }
+    }
+
+    static void unary(int opcode, double[] values, int from, int to) {
+
+        switch (opcode) {
+            case Program.NEG:
+                for(int i = from; i < to; i++) {
+                    values[i] = -values[i];
+                }
+                break;
+            case Program.SIN:
+                for(int i = from; i < to; i++) {
+                    values[i] = Math.sin(values[i]);
+                }
+                break;
+            case Program.COS:
+                for(int i = from; i < to; i++) {
+                    values[i] = Math.cos(values[i]);
+                }
+                break;
+            case Program.LOG:
+                for(int i = from; i < to; i++) {
+                    values[i] = Math.log(values[i]);
+                }
+                break;
+            case Program.EXP:
+                for(int i = from; i < to; i++) {
+                    values[i] = Math.exp(values[i]);
+                }
+                break;
+            case Program.SQRT:
+                for(int i = from; i < to; i++) {
+                    values[i] = Math.sqrt(values[i]);
+                }
+                break;
+            default:
+                throw new RuntimeException("unknown opcode: " + opcode);
+        }
+    }
+}
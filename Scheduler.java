@@ -0,0 +1,157 @@
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// runs any number of scripts on a few carrier threads, taking turns: each
+// runs until it has gone round its loops a quantum of times, or gets to a
+// read() its ScriptInput has nothing for yet, and then goes to the back of
+// the queue (or aside until the input comes) for the next one to run. A
+// script in a long loop can't hold a carrier for more than its quantum,
+// and one waiting for input doesn't hold one at all. How long each script
+// has run is kept, slice by slice
+public class Scheduler {
+
+    // loop iterations per turn
+    public static final int DEFAULT_QUANTUM = 10000;
+
+    private final int quantum;
+    private final BlockingQueue<Script> ready = new LinkedBlockingQueue<Script>();
+    private final Thread[] carriers;
+
+    public Scheduler(int carriers, int quantum) {
+
+        this.quantum = quantum;
+        this.carriers = new Thread[carriers];
+
+        for(int i = 0; i < carriers; i++) {
+            this.carriers[i] = new Thread(this::carry, "carrier-" + i);
+            // scripts still running or blocked mustn't keep the JVM up
+            this.carriers[i].setDaemon(true);
+            this.carriers[i].start();
+        }
+    }
+
+    // starts the program when a carrier gets to it
+    public Script submit(Program program, OutputSink output, InputSource input) {
+        return submit(program, output, input, null);
+    }
+
+    // limits: checked after every turn, so a script may go a quantum past one
+    public Script submit(Program program, OutputSink output, InputSource input, ExecutionLimits limits) {
+
+        Interpreter interpreter = new Interpreter(program, output, input);
+        interpreter.limit(limits);
+        Script script = new Script(interpreter, input);
+
+        if(input instanceof ScriptInput) {
+            ((ScriptInput) input).listen(script::wake);
+        }
+
+        ready.add(script);
+
+        return script;
+    }
+
+    // stops the carriers; scripts not finished by then never will be
+    public void shutdown() {
+        for(Thread carrier : carriers) {
+            carrier.interrupt();
+        }
+    }
+
+    private void carry() {
+        try {
+            while(true) {
+                run(ready.take());
+            }
+        }
+        catch(InterruptedException e) {
+            // shut down
+        }
+    }
+
+    private void run(Script script) {
+
+        long start = System.nanoTime();
+        int state;
+
+        try {
+            state = script.interpreter.run(quantum);
+        }
+        catch(Throwable e) {
+            // any Error too: the carrier carries on, and whoever waits on the script hears of it
+            script.account(start);
+            script.done.completeExceptionally(e);
+            return;
+        }
+
+        script.account(start);
+
+        switch (state) {
+            case Interpreter.HALTED:
+                script.done.complete(null);
+                break;
+            case Interpreter.YIELDED:
+                ready.add(script);
+                break;
+            default:
+                script.block();
+                break;
+        }
+    }
+
+    // a submitted program, and what it has cost so far
+    public class Script {
+
+        private final Interpreter interpreter;
+        private final InputSource input;
+        private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        // set while it waits for input, cleared by whoever puts it back in the queue
+        private final AtomicBoolean blocked = new AtomicBoolean(false);
+
+        private volatile long runTime = 0;
+        private volatile long slices = 0;
+
+        private Script(Interpreter interpreter, InputSource input) {
+            this.interpreter = interpreter;
+            this.input = input;
+        }
+
+        // completes when the program ends, exceptionally if it fails
+        public CompletableFuture<Void> done() {
+            return done;
+        }
+
+        // nanoseconds on a carrier
+        public long runTime() {
+            return runTime;
+        }
+
+        // turns taken
+        public long slices() {
+            return slices;
+        }
+
+        // a carrier runs one script's slices at a time, so only it writes these
+        private void account(long start) {
+            runTime += System.nanoTime() - start;
+            slices++;
+        }
+
+        private void block() {
+            blocked.set(true);
+            // the input may have come after the script looked and before it was marked
+            if(input.ready()) {
+                wake();
+            }
+        }
+
+        private void wake() {
+            if(blocked.compareAndSet(true, false)) {
+                ready.add(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.StringWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+// checks that a script waiting in read() gives up its carrier and picks up
+// where it was once the input comes, and that a script failing with an
+// Error fails its done() and leaves the carrier running:
+//   java SchedulerTest
+public class SchedulerTest {
+
+    private static final long WAIT_SECONDS = 10;
+
+    public static void main(String[] args) throws Exception {
+
+        // one carrier, so a script that held it while waiting would stop everything else
+        Scheduler scheduler = new Scheduler(1, 1000);
+        int failures = 0;
+
+        StringWriter read = new StringWriter();
+        ScriptInput input = new ScriptInput();
+        Scheduler.Script reader = scheduler.submit(program("print \"go\"\ny = read(0)\nz = read(0)\nprint y + z\n"), new WriterSink(read), input);
+
+        StringWriter counted = new StringWriter();
+        Scheduler.Script counter = scheduler.submit(program("t = 0\nfor(i = 0; i < 100000; i++) { t = t + i }\nprint t\n"), new WriterSink(counted), new ScriptInput());
+        counter.done().get(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        failures += check("counter output", "4999950000", counted.toString().trim());
+        failures += check("reader waiting", "false", String.valueOf(reader.done().isDone()));
+        failures += check("reader output before input", "go", read.toString().trim());
+
+        input.offer(40);
+        input.offer(2);
+        reader.done().get(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        failures += check("reader output", "go 42", read.toString().trim().replace(System.lineSeparator(), " "));
+
+        OutputSink broken = new OutputSink() {
+            @Override
+            public void print(Value value) {
+                throw new AssertionError("broken sink");
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+
+        Scheduler.Script failing = scheduler.submit(program("print 1\n"), broken, new ScriptInput());
+
+        try {
+            failing.done().get(WAIT_SECONDS, TimeUnit.SECONDS);
+            failures += check("failing script", "AssertionError", "completed");
+        }
+        catch(ExecutionException e) {
+            failures += check("failing script", "AssertionError", e.getCause().getClass().getSimpleName());
+        }
+
+        StringWriter after = new StringWriter();
+        scheduler.submit(program("print 7\n"), new WriterSink(after), new ScriptInput()).done().get(WAIT_SECONDS, TimeUnit.SECONDS);
+        failures += check("script after the failure", "7", after.toString().trim());
+
+        scheduler.shutdown();
+
+        if(failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+
+        System.out.println("ok");
+    }
+
+    private static int check(String what, String expected, String actual) {
+
+        if(!expected.equals(actual)) {
+            System.out.println(what + ": expected '" + expected + "', got '" + actual + "'");
+            return 1;
+        }
+
+        return 0;
+    }
+
+    private static Program program(String source) {
+        return ProgramCompiler.compile(new CalculatorParser(new CommonTokenStream(new CalculatorLexer(CharStreams.fromString(source)))).parse());
+    }
+}
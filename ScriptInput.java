@@ -0,0 +1,70 @@
+import java.util.ArrayDeque;
+
+// input handed to a script as it comes, from another thread: a scheduled
+// script that gets to read() before there's anything to read is put aside
+// (see Scheduler), and taken up again by offer() or close()
+public class ScriptInput implements InputSource {
+
+    private final ArrayDeque<Double> values = new ArrayDeque<Double>();
+    private boolean closed = false;
+
+    // told when the input becomes ready
+    private Runnable listener;
+
+    public void offer(double value) {
+        synchronized(this) {
+            values.add(value);
+            notifyAll();
+        }
+        ready(listener());
+    }
+
+    // no more input: read() past what's there fails
+    public void close() {
+        synchronized(this) {
+            closed = true;
+            notifyAll();
+        }
+        ready(listener());
+    }
+
+    @Override
+    public synchronized boolean ready() {
+        return !values.isEmpty() || closed;
+    }
+
+    // waits for a number when not scheduled
+    @Override
+    public synchronized double readDouble() {
+
+        while(values.isEmpty() && !closed) {
+            try {
+                wait();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while waiting for input");
+            }
+        }
+
+        if(values.isEmpty()) {
+            throw new EndOfInputException();
+        }
+
+        return values.poll();
+    }
+
+    synchronized void listen(Runnable listener) {
+        this.listener = listener;
+    }
+
+    private synchronized Runnable listener() {
+        return listener;
+    }
+
+    private static void ready(Runnable listener) {
+        if(listener != null) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// main class of a jar built by JarCompiler: runs the program stored next to
+// it, without ever loading the lexer, the parser or ANTLR
+public class ScriptLauncher {
+
+    // where in the jar the compiled program is
+    public static final String PROGRAM_RESOURCE = "program.bin";
+
+    public static void main(String[] args) throws IOException {
+
+        try(InputStream in = ScriptLauncher.class.getResourceAsStream("/" + PROGRAM_RESOURCE)) {
+
+            if(in == null) {
+                throw new IOException("no " + PROGRAM_RESOURCE + " in the jar");
+            }
+
+            Program program = Program.read(ByteBuffer.wrap(in.readAllBytes()));
+            new Interpreter(program).run();
+        }
+    }
+}
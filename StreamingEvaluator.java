@@ -0,0 +1,65 @@
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+
+// parses and evaluates one top-level stat at a time, so the script is never
+// held in memory as a whole (neither its text, its tokens nor its tree)
+public class StreamingEvaluator {
+
+    private final EvalVisitor visitor;
+
+    // someone is typing the script: show each statement's output right away
+    private final boolean interactive;
+
+    public StreamingEvaluator(EvalVisitor visitor) {
+        this(visitor, false);
+    }
+
+    public StreamingEvaluator(EvalVisitor visitor, boolean interactive) {
+        this.visitor = visitor;
+        this.interactive = interactive;
+    }
+
+    public void run(InputStream in) {
+
+        CalculatorLexer lexer = new CalculatorLexer(
+                new UnbufferedCharStream(in, 4096, StandardCharsets.UTF_8));
+
+        // the char stream drops its buffer as it goes, so tokens must copy their text
+        lexer.setTokenFactory(new CommonTokenFactory(true));
+
+        TokenStream tokens = new UnbufferedTokenStream<Token>(lexer);
+        CalculatorParser parser = new CalculatorParser(tokens);
+
+        while(tokens.LA(1) != Token.EOF) {
+
+            // an empty statement, as block allows between statements
+            if(tokens.LA(1) == CalculatorParser.SCOL) {
+                tokens.consume();
+                continue;
+            }
+
+            int start = tokens.index();
+
+            // the subtree is unreachable once it has been evaluated
+            CalculatorParser.StatContext stat = parser.stat();
+            visitor.visit(stat);
+
+            if(interactive) {
+                visitor.output().flush();
+            }
+
+            // a token no stat can start with (a stray '}' say): skip it, don't spin
+            if(tokens.index() == start) {
+                tokens.consume();
+            }
+        }
+
+        visitor.output().flush();
+    }
+}
@@ -0,0 +1,147 @@
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+
+// sits between the lexer and the parser in terminators mode: keeps only the
+// newlines that end a statement, and adds one before a '}' or the end of the
+// input where a statement ends without one, so every stat in a block is
+// followed by a NL or ';' and the parser never has to look past it
+public class TerminatorFilter implements TokenSource {
+
+    private final CalculatorLexer lexer;
+
+    // the token after a run of newlines, read to see if it continues the statement
+    private Token pending;
+    private Token previous;
+
+    // newlines inside parentheses (a for header, say) never end anything
+    private int depth = 0;
+
+    public TerminatorFilter(CalculatorLexer lexer) {
+        this.lexer = lexer;
+        lexer.terminators = true;
+    }
+
+    // a parser that requires statement terminators
+    public static CalculatorParser parser(CharStream input) {
+        CalculatorLexer lexer = new CalculatorLexer(input);
+        // the text is taken once, while the stream is positioned right after the token
+        lexer.setTokenFactory(new CommonTokenFactory(true));
+        CalculatorParser parser = new CalculatorParser(new CommonTokenStream(new TerminatorFilter(lexer)));
+        parser.terminators = true;
+        return parser;
+    }
+
+    @Override
+    public Token nextToken() {
+
+        while(true) {
+
+            Token token = pending != null ? pending : lexer.nextToken();
+            pending = null;
+
+            if(token.getType() == CalculatorLexer.NL) {
+
+                if(depth > 0 || !endsStatement(previous)) {
+                    continue;
+                }
+
+                Token next = lexer.nextToken();
+                while(next.getType() == CalculatorLexer.NL) {
+                    next = lexer.nextToken();
+                }
+                pending = next;
+
+                // 'else' and an opening brace on the next line still belong to this statement
+                if(next.getType() == CalculatorLexer.ELSE || next.getType() == CalculatorLexer.OBRACE) {
+                    continue;
+                }
+
+                return previous = token;
+            }
+
+            if((token.getType() == CalculatorLexer.CBRACE || token.getType() == Token.EOF) && endsStatement(previous)) {
+                pending = token;
+                return previous = terminator(token);
+            }
+
+            if(token.getType() == CalculatorLexer.OPAR) {
+                depth++;
+            }
+            else if(token.getType() == CalculatorLexer.CPAR && depth > 0) {
+                depth--;
+            }
+
+            return previous = token;
+        }
+    }
+
+    private static boolean endsStatement(Token token) {
+
+        if(token == null) {
+            return false;
+        }
+
+        switch (token.getType()) {
+            case CalculatorLexer.ID:
+            case CalculatorLexer.INT:
+            case CalculatorLexer.FLOAT:
+            case CalculatorLexer.STRING:
+            case CalculatorLexer.TRUE:
+            case CalculatorLexer.FALSE:
+            case CalculatorLexer.NIL:
+            case CalculatorLexer.CPAR:
+            case CalculatorLexer.CBRACE:
+            case CalculatorLexer.INC:
+            case CalculatorLexer.DEC:
+            case CalculatorLexer.BREAK:
+            case CalculatorLexer.CONT:
+            case CalculatorLexer.RET:
+            case CalculatorLexer.OTHER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Token terminator(Token before) {
+        CommonToken token = new CommonToken(CalculatorLexer.NL, "\n");
+        token.setLine(before.getLine());
+        token.setCharPositionInLine(before.getCharPositionInLine());
+        return token;
+    }
+
+    @Override
+    public int getLine() {
+        return lexer.getLine();
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return lexer.getCharPositionInLine();
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return lexer.getInputStream();
+    }
+
+    @Override
+    public String getSourceName() {
+        return lexer.getSourceName();
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        lexer.setTokenFactory(factory);
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return lexer.getTokenFactory();
+    }
+}
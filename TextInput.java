@@ -0,0 +1,200 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// whitespace separated numbers from a stream, read through one buffer that
+// lives as long as the input does, so nothing read ahead is ever lost
+public class TextInput implements InputSource {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // up to 15 digits and 10^22 both m and 10^e are exact doubles, so
+    // m * 10^e or m / 10^-e is correctly rounded (Clinger's fast path)
+    private static final int EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for(int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static TextInput stdin;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    // the current number's characters
+    private byte[] token = new byte[64];
+
+    public TextInput(InputStream in) {
+        this.in = in;
+    }
+
+    // the one reader of standard input; a second one could buffer away the first one's input
+    public static synchronized TextInput stdin() {
+
+        if(stdin == null) {
+            stdin = new TextInput(System.in);
+        }
+
+        return stdin;
+    }
+
+    public static TextInput open(String file) throws IOException {
+        return new TextInput(new FileInputStream(file));
+    }
+
+    @Override
+    public synchronized double readDouble() {
+
+        int length = nextToken();
+
+        if(length < 0) {
+            throw new EndOfInputException();
+        }
+
+        return parse(token, length);
+    }
+
+    // the next token's length, or -1 at the end of the input
+    private int nextToken() {
+
+        int b;
+
+        do {
+            b = next();
+        }
+        while(b >= 0 && b <= ' ');
+
+        if(b < 0) {
+            return -1;
+        }
+
+        int length = 0;
+
+        while(b > ' ') {
+            if(length == token.length) {
+                token = Arrays.copyOf(token, length * 2);
+            }
+            token[length++] = (byte) b;
+            b = next();
+        }
+
+        return length;
+    }
+
+    private int next() {
+
+        if(position == limit) {
+            try {
+                limit = in.read(buffer, 0, buffer.length);
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            position = 0;
+            if(limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+
+        return buffer[position++] & 0xFF;
+    }
+
+    static double parse(byte[] text, int length) {
+
+        int i = 0;
+        boolean negative = false;
+
+        if(i < length && (text[i] == '-' || text[i] == '+')) {
+            negative = text[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+
+        for(; i < length && text[i] >= '0' && text[i] <= '9'; i++) {
+            any = true;
+            if(mantissa != 0 || text[i] != '0') {
+                if(++digits > EXACT_DIGITS) {
+                    return slow(text, length);
+                }
+                mantissa = mantissa * 10 + (text[i] - '0');
+            }
+        }
+
+        if(i < length && text[i] == '.') {
+            for(i++; i < length && text[i] >= '0' && text[i] <= '9'; i++) {
+                any = true;
+                if(mantissa != 0 || text[i] != '0') {
+                    if(++digits > EXACT_DIGITS) {
+                        return slow(text, length);
+                    }
+                    mantissa = mantissa * 10 + (text[i] - '0');
+                }
+                exponent--;
+            }
+        }
+
+        if(!any) {
+            return slow(text, length);
+        }
+
+        if(i < length && (text[i] == 'e' || text[i] == 'E')) {
+
+            i++;
+            boolean negativeExponent = false;
+
+            if(i < length && (text[i] == '-' || text[i] == '+')) {
+                negativeExponent = text[i] == '-';
+                i++;
+            }
+
+            int start = i;
+            int value = 0;
+
+            for(; i < length && text[i] >= '0' && text[i] <= '9'; i++) {
+                // anything this large is out of the fast path's range anyway
+                value = Math.min(value * 10 + (text[i] - '0'), 10000);
+            }
+
+            if(i == start) {
+                return slow(text, length);
+            }
+
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if(i != length || exponent < -22 || exponent > 22) {
+            return slow(text, length);
+        }
+
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+
+        return negative ? -value : value;
+    }
+
+    // everything the fast path doesn't cover: long mantissas, huge exponents, NaN, Infinity
+    private static double slow(byte[] text, int length) {
+
+        String str = new String(text, 0, length, StandardCharsets.ISO_8859_1);
+
+        try {
+            return Double.parseDouble(str);
+        }
+        catch(NumberFormatException e) {
+            throw new RuntimeException("not a number: " + str);
+        }
+    }
+}
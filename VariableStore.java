@@ -0,0 +1,49 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+// the variables of a tree-walking evaluation, safe to share between threads:
+// reads never block, and writes only contend when they hit the same stripe
+// of the table. ++ and -- are atomic, so threads counting into one variable
+// don't lose updates; "x = x + 1" is a read and a write and isn't
+public class VariableStore {
+
+    private final ConcurrentHashMap<String, Value> values;
+
+    public VariableStore() {
+        this.values = new ConcurrentHashMap<String, Value>();
+    }
+
+    private VariableStore(ConcurrentHashMap<String, Value> values) {
+        this.values = values;
+    }
+
+    // null if the variable was never assigned
+    public Value get(String name) {
+        return values.get(name);
+    }
+
+    // returns the value it replaces, or null
+    public Value put(String name, Value value) {
+        return values.put(name, value);
+    }
+
+    // adds to the variable in one step and returns the value it had
+    public Value add(String name, double amount) {
+
+        Value[] old = new Value[1];
+
+        values.compute(name, (key, value) -> {
+            if(value == null) {
+                throw new RuntimeException("no such variable: " + key);
+            }
+            old[0] = value;
+            return new Value(value.asDouble() + amount);
+        });
+
+        return old[0];
+    }
+
+    // a store of its own with the same variables
+    public VariableStore copy() {
+        return new VariableStore(new ConcurrentHashMap<String, Value>(values));
+    }
+}
@@ -0,0 +1,76 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD loops on the widest vectors the CPU has. Only ever loaded through
+// BatchExpression's check that jdk.incubator.vector is there, which takes
+// "--add-modules jdk.incubator.vector" to compile and to run. Only the
+// operators whose lanes round exactly like the scalar ones are vectorized:
+// the vector POW, SIN, COS, LOG and EXP can differ from Math's in the last
+// bit, and a row's result must not depend on whether it went through a
+// batch. There is no vector remainder either, so those and % stay scalar
+public class VectorKernels implements Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void binary(int opcode, double[] left, double[] right, int n) {
+
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+
+        switch (opcode) {
+            case Program.ADD:
+                for(; i < bound; i += SPECIES.length()) {
+                    DoubleVector.fromArray(SPECIES, left, i).add(DoubleVector.fromArray(SPECIES, right, i)).intoArray(left, i);
+                }
+                break;
+            case Program.SUB:
+                for(; i < bound; i += SPECIES.length()) {
+                    DoubleVector.fromArray(SPECIES, left, i).sub(DoubleVector.fromArray(SPECIES, right, i)).intoArray(left, i);
+                }
+                break;
+            case Program.MUL:
+                for(; i < bound; i += SPECIES.length()) {
+                    DoubleVector.fromArray(SPECIES, left, i).mul(DoubleVector.fromArray(SPECIES, right, i)).intoArray(left, i);
+                }
+                break;
+            case Program.DIV:
+                for(; i < bound; i += SPECIES.length()) {
+                    DoubleVector.fromArray(SPECIES, left, i).div(DoubleVector.fromArray(SPECIES, right, i)).intoArray(left, i);
+                }
+                break;
+            default:
+                break;
+        }
+
+        ScalarKernels.binary(opcode, left, right, i, n);
+    }
+
+    @Override
+    public void unary(int opcode, double[] values, int n) {
+
+        VectorOperators.Unary operator;
+
+        switch (opcode) {
+            case Program.NEG:
+                operator = VectorOperators.NEG;
+                break;
+            case Program.SQRT:
+                operator = VectorOperators.SQRT;
+                break;
+            default:
+                ScalarKernels.unary(opcode, values, 0, n);
+                return;
+        }
+
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+
+        for(; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, values, i).lanewise(operator).intoArray(values, i);
+        }
+
+        ScalarKernels.unary(opcode, values, i, n);
+    }
+}
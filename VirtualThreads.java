@@ -0,0 +1,38 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// a thread per task: virtual ones on a JVM that has them (21 on), otherwise
+// pooled daemon threads, which don't keep the JVM running
+public class VirtualThreads {
+
+    private static final Method VIRTUAL = virtual();
+
+    // shut it down when done with it
+    public static ExecutorService perTask() {
+
+        if(VIRTUAL != null) {
+            try {
+                return (ExecutorService) VIRTUAL.invoke(null);
+            }
+            catch(ReflectiveOperationException e) {
+                // can't happen for a public static method: fall through
+            }
+        }
+
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Method virtual() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch(NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+// printed values as text on a Writer, the way BufferedOutputSink encodes
+// them; for hosts that hand out Writers, like javax.script
+public class WriterSink implements OutputSink {
+
+    private final Writer writer;
+
+    public WriterSink(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public synchronized void print(Value value) {
+        try {
+            if(value.isDouble()) {
+                writer.write(NumberFormatter.toString(value.asDouble()));
+            }
+            else if(value.isBoolean()) {
+                writer.write(value.asBoolean() ? '1' : '0');
+            }
+            else {
+                writer.write(value.toString());
+            }
+            writer.write(System.lineSeparator());
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            writer.flush();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}